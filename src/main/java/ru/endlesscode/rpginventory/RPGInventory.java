@@ -52,9 +52,11 @@ import ru.endlesscode.rpginventory.misc.Updater;
 import ru.endlesscode.rpginventory.misc.config.Config;
 import ru.endlesscode.rpginventory.misc.config.ConfigUpdater;
 import ru.endlesscode.rpginventory.misc.serialization.Serialization;
-import ru.endlesscode.rpginventory.mysql.MysqlConn;
 import ru.endlesscode.rpginventory.pet.PetManager;
 import ru.endlesscode.rpginventory.resourcepack.ResourcePackModule;
+import ru.endlesscode.rpginventory.storage.SaveQueue;
+import ru.endlesscode.rpginventory.storage.StorageManager;
+import ru.endlesscode.rpginventory.storage.StorageMigration;
 import ru.endlesscode.rpginventory.utils.Log;
 import ru.endlesscode.rpginventory.utils.PlayerUtils;
 import ru.endlesscode.rpginventory.utils.StringUtils;
@@ -63,6 +65,8 @@ import ru.endlesscode.rpginventory.utils.Version;
 import java.nio.file.Path;
 
 public class RPGInventory extends PluginLifecycle {
+    private static final int DEFAULT_SHUTDOWN_TIMEOUT = 30;
+
     private static RPGInventory instance;
 
     private Permission perms;
@@ -157,9 +161,11 @@ public class RPGInventory extends PluginLifecycle {
 
         Serialization.registerTypes();
 
-        if (mysql) {
-            MysqlConn.start();
+        if (!StorageManager.init(this)) {
+            this.getPluginLoader().disablePlugin(this);
+            return;
         }
+        SaveQueue.start();
 
         if (!this.checkRequirements()) {
             this.getPluginLoader().disablePlugin(this);
@@ -267,24 +273,50 @@ public class RPGInventory extends PluginLifecycle {
 
     @Override
     public void onDisable() {
-        BackpackManager.saveBackpacks();
-        this.savePlayers();
-        MysqlConn.stop();
+        BackpackManager.stopSweeper();
+
+        // Snapshots are taken on the main thread, then saved in parallel
+        long startTime = System.currentTimeMillis();
+        int backpacks = BackpackManager.saveBackpacks();
+        int players = this.savePlayers();
+        Log.i("Snapshots of {0} backpacks and {1} inventories taken in {2} ms",
+                String.valueOf(backpacks), String.valueOf(players), String.valueOf(System.currentTimeMillis() - startTime));
+
+        int shutdownTimeout = Config.getConfig().getInt("storage.shutdown-timeout", DEFAULT_SHUTDOWN_TIMEOUT);
+        if (shutdownTimeout <= 0) {
+            Log.w("storage.shutdown-timeout should be positive, {0} seconds is used", String.valueOf(DEFAULT_SHUTDOWN_TIMEOUT));
+            shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+        }
+        SaveQueue.shutdown(shutdownTimeout * 1000L);
+        StorageMigration.cancel();
+        StorageManager.close();
+
+        if (this.resourcePackModule != null) {
+            this.resourcePackModule.shutdown();
+        }
     }
 
     private void startMetrics() {
         new MetricsLite(this);
     }
 
-    private void savePlayers() {
+    /**
+     * @return number of unloaded inventories
+     */
+    private int savePlayers() {
         if (this.getServer().getOnlinePlayers().size() == 0) {
-            return;
+            return 0;
         }
 
         Log.i("Saving players inventories...");
+        int unloaded = 0;
         for (Player player : this.getServer().getOnlinePlayers()) {
+            if (InventoryManager.playerIsLoaded(player)) {
+                unloaded++;
+            }
             InventoryManager.unloadPlayerInventory(player);
         }
+        return unloaded;
     }
 
     private void loadPlayers() {
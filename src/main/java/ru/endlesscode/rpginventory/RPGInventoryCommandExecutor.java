@@ -33,6 +33,7 @@ import ru.endlesscode.rpginventory.inventory.InventoryManager;
 import ru.endlesscode.rpginventory.inventory.backpack.BackpackManager;
 import ru.endlesscode.rpginventory.item.ItemManager;
 import ru.endlesscode.rpginventory.pet.PetManager;
+import ru.endlesscode.rpginventory.storage.StorageMigration;
 import ru.endlesscode.rpginventory.utils.ItemUtils;
 import ru.endlesscode.rpginventory.utils.StringUtils;
 
@@ -70,6 +71,9 @@ final class RPGInventoryCommandExecutor implements CommandExecutor {
                 case 'b': // backpacks
                     this.tryToGiveBackpack(sender, args);
                     return true;
+                case 'm': // migrate
+                    this.tryToMigrate(sender, args);
+                    return true;
                 case 'l': // list
                     this.onCommandList(sender);
                     return true;
@@ -137,6 +141,26 @@ final class RPGInventoryCommandExecutor implements CommandExecutor {
         sender.sendMessage(StringUtils.coloredLine("&3Usage: &6/rpginv bp [&eplayer&6] [&eitemId&6]"));
     }
 
+    private void tryToMigrate(CommandSender sender, String[] args) {
+        if (sender instanceof Player) {
+            sender.sendMessage(StringUtils.coloredLine("&cThis command allowed only from console."));
+            return;
+        }
+
+        if (args.length < 3 || args[1].equalsIgnoreCase(args[2])) {
+            sender.sendMessage(StringUtils.coloredLine("&3Usage: &6/rpginv migrate [&efrom&6] [&eto&6] (&econvert&6)"));
+            sender.sendMessage(StringUtils.coloredLine("&3Storage types: &6file&3, &6sqlite&3, &6segment&3, &6mysql"));
+            return;
+        }
+
+        boolean convert = args.length > 3 && args[3].equalsIgnoreCase("convert");
+        if (StorageMigration.start(args[1], args[2], convert)) {
+            sender.sendMessage(StringUtils.coloredLine("&3Migration started, progress will be shown in the log."));
+        } else {
+            sender.sendMessage(StringUtils.coloredLine("&cMigration is already running."));
+        }
+    }
+
     private void givePet(@NotNull CommandSender sender, String playerName, String petId) {
         final Player player = RPGInventory.getInstance().getServer().getPlayer(playerName);
         final ItemStack petItem = PetManager.getPetItem(petId);
@@ -261,6 +285,7 @@ final class RPGInventoryCommandExecutor implements CommandExecutor {
             sender.sendMessage(StringUtils.coloredLine("&6rpginv pet [&eplayer&6] [&epetId&6] &7- gives pet to player"));
             sender.sendMessage(StringUtils.coloredLine("&6rpginv item [&eplayer&6] [&eitemId&6] &7- gives item to player"));
             sender.sendMessage(StringUtils.coloredLine("&6rpginv bp [&eplayer&6] [&ebackpackId&6] &7- gives backpack to player"));
+            sender.sendMessage(StringUtils.coloredLine("&6rpginv migrate [&efrom&6] [&eto&6] (&econvert&6) &7- copies data to another storage"));
         }
 
         sender.sendMessage(StringUtils.coloredLine("&3====================================================="));
@@ -0,0 +1,126 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ru.endlesscode.rpginventory.compat;
+
+import com.comphenix.protocol.utility.MinecraftReflection;
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.rpginventory.utils.Log;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * Binds method handles to members of server classes.
+ * <p>
+ * Handles should be resolved once and stored in static final fields, so calls can be inlined by JIT.
+ * If a member doesn't exist on the current server version, null is returned and the failure is logged.
+ */
+public final class NmsHandles {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private NmsHandles() {
+    }
+
+    /**
+     * Finds class that is not relocated by server version, like classes of Mojang libraries.
+     */
+    @Nullable
+    public static Class<?> findClass(@NotNull String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException | RuntimeException e) {
+            reportMissing("class " + name, e);
+            return null;
+        }
+    }
+
+    @Nullable
+    public static Class<?> findMinecraftClass(@NotNull String name) {
+        try {
+            return MinecraftReflection.getMinecraftClass(name);
+        } catch (RuntimeException e) {
+            reportMissing("class " + name, e);
+            return null;
+        }
+    }
+
+    /**
+     * Finds declared method by name and parameter types. Return type is not checked.
+     */
+    @Nullable
+    public static MethodHandle findMethod(@Nullable Class<?> owner, @NotNull String name, @NotNull Class<?>... parameterTypes) {
+        if (owner == null) {
+            return null;
+        }
+
+        try {
+            Method method = owner.getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return LOOKUP.unreflect(method);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            reportMissing(String.format("method %s.%s%s", owner.getSimpleName(), name, Arrays.toString(parameterTypes)), e);
+            return null;
+        }
+    }
+
+    @Nullable
+    public static MethodHandle findConstructor(@Nullable Class<?> owner, @NotNull Class<?>... parameterTypes) {
+        if (owner == null) {
+            return null;
+        }
+
+        try {
+            Constructor<?> constructor = owner.getDeclaredConstructor(parameterTypes);
+            constructor.setAccessible(true);
+            return LOOKUP.unreflectConstructor(constructor);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            reportMissing(String.format("constructor %s%s", owner.getSimpleName(), Arrays.toString(parameterTypes)), e);
+            return null;
+        }
+    }
+
+    @Nullable
+    public static MethodHandle findGetter(@Nullable Class<?> owner, @NotNull String name) {
+        if (owner == null) {
+            return null;
+        }
+
+        try {
+            Field field = owner.getDeclaredField(name);
+            field.setAccessible(true);
+            return LOOKUP.unreflectGetter(field);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            reportMissing(String.format("field %s.%s", owner.getSimpleName(), name), e);
+            return null;
+        }
+    }
+
+    private static void reportMissing(@NotNull String member, @NotNull Exception e) {
+        Log.w("Can''t find {0} on {1} (version code {2}): {3}",
+                member, Bukkit.getBukkitVersion(), String.valueOf(VersionHandler.getVersionCode()), e.toString());
+    }
+}
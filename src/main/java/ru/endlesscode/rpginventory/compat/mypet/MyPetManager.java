@@ -111,6 +111,7 @@ public class MyPetManager implements Listener {
                 }
             } else {
                 inventory.setItem(petSlot.getSlotId(), petSlot.getCup());
+                InventoryManager.get(player).markDirty();
             }
 
             MyPetApi.getMyPetManager().deactivateMyPet(mpPlayer, false);
@@ -282,6 +283,7 @@ public class MyPetManager implements Listener {
         ItemStack currentPet = inventory.getItem(petSlot.getSlotId());
         boolean hasPet = currentPet != null && !petSlot.isCup(currentPet);
         inventory.setItem(petSlot.getSlotId(), petItem);
+        InventoryManager.get(player).markDirty();
 
         if (hasPet) {
             player.getInventory().addItem(currentPet);
@@ -335,12 +337,14 @@ public class MyPetManager implements Listener {
             String petTag = ItemUtils.getTag(currentPetItem, MYPET_TAG);
             if (petTag.isEmpty()) {
                 inventory.setItem(petSlot.getSlotId(), petSlot.getCup());
+                InventoryManager.get(player).markDirty();
                 return;
             }
 
             UUID petUUID = UUID.fromString(petTag);
             if (petUUID.equals(event.getMyPet().getUUID())) {
                 inventory.setItem(petSlot.getSlotId(), petSlot.getCup());
+                InventoryManager.get(player).markDirty();
             }
         }
     }
@@ -370,6 +374,7 @@ public class MyPetManager implements Listener {
 
                 player.getEquipment().setItemInMainHand(currentPet);
                 inventory.setItem(petSlot.getSlotId(), newPet);
+                InventoryManager.get(player).markDirty();
 
                 swapMyPets(player, hasPet, newPet);
             }
@@ -131,6 +131,7 @@ public class BackpackListener implements Listener {
         }
 
         backpack.onUse();
+        backpack.onClose();
         playerWrapper.setBackpack(null);
         if (RPGInventory.getInstance().onMysql()) {
             BackpackManager.saveBackpacks(backpack.getId());
@@ -69,6 +69,13 @@ public class InventoryListener implements Listener {
 
     private final static int QUICKBAR_SIZE = 9;
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPreLogin(@NotNull AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            InventoryManager.prefetchPlayerInventory(event.getUniqueId());
+        }
+    }
+
     @EventHandler(priority = EventPriority.MONITOR)
     public void onPlayerJoin(@NotNull final PlayerJoinEvent event) {
         final Player player = event.getPlayer();
@@ -355,6 +362,7 @@ public class InventoryListener implements Listener {
             }
 
             if (!event.isCancelled()) {
+                InventoryManager.get(player).markDirty();
                 BukkitRunnable cupPlacer = new TrackedBukkitRunnable() {
                     @Override
                     public void run() {
@@ -240,9 +240,22 @@ public class ItemListener implements Listener {
             return;
         }
 
+        InventoryManager.get(player).invalidateSpeed();
         ItemManager.updateStats(event.getPlayer());
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void afterLevelChange(@NotNull PlayerLevelChangeEvent event) {
+        Player player = event.getPlayer();
+
+        if (!InventoryManager.playerIsLoaded(player)) {
+            return;
+        }
+
+        // Level restrictions could enable or disable some items
+        ItemManager.updateStats(player);
+    }
+
     @EventHandler(priority = EventPriority.MONITOR)
     public void afterEquipChange(@NotNull InventoryClickEvent event) {
         Player player = (Player) event.getWhoClicked();
@@ -288,13 +301,16 @@ public class ItemListener implements Listener {
 
         final ItemStack newItem = player.getInventory().getItem(event.getNewSlot());
         final ItemStack oldItem = player.getInventory().getItem(event.getPreviousSlot());
+        if (!CustomItem.isCustomItem(oldItem) && !CustomItem.isCustomItem(newItem)) {
+            return;
+        }
 
+        // Hits right after the switch should use stats of the new weapon
+        InventoryManager.get(player).getStatsCache().invalidate();
         new TrackedBukkitRunnable() {
             @Override
             public void run() {
-                if (CustomItem.isCustomItem(oldItem) || CustomItem.isCustomItem(newItem)) {
-                    ItemManager.updateStats(event.getPlayer());
-                }
+                ItemManager.updateStats(event.getPlayer());
             }
         }.runTaskLater(RPGInventory.getInstance(), 2);
     }
@@ -65,7 +65,6 @@ import ru.endlesscode.rpginventory.misc.config.Config;
 import ru.endlesscode.rpginventory.pet.PetFood;
 import ru.endlesscode.rpginventory.pet.PetManager;
 import ru.endlesscode.rpginventory.pet.PetType;
-import ru.endlesscode.rpginventory.utils.EntityUtils;
 import ru.endlesscode.rpginventory.utils.LocationUtils;
 import ru.endlesscode.rpginventory.utils.PlayerUtils;
 
@@ -118,6 +117,7 @@ public class PetListener implements Listener {
             if (petSlot != null && petSlot.isCup(inventory.getItem(PetManager.getPetSlotId()))
                     && ItemManager.allowedForPlayer(player, petItem, false)) {
                 inventory.setItem(PetManager.getPetSlotId(), event.getItem());
+                InventoryManager.get(player).markDirty();
                 PetManager.respawnPet(player, petItem);
                 player.getEquipment().setItemInMainHand(null);
             }
@@ -249,6 +249,7 @@ public class PetListener implements Listener {
 
             event.getDrops().clear();
             playerWrapper.setPet(null);
+            playerWrapper.markDirty();
         }
     }
 
@@ -411,12 +412,8 @@ public class PetListener implements Listener {
             return;
         }
 
-        LivingEntity petEntity = InventoryManager.get(player).getPet();
-        if (petEntity != null && !petEntity.getPassengers().isEmpty() && petEntity.getPassengers().get(0) != player) {
-            PetType pet = PetManager.getPetFromEntity(petEntity, player);
-            if (pet != null && pet.getRole() != PetType.Role.COMPANION) {
-                EntityUtils.goPetToPlayer(player, petEntity);
-            }
+        if (InventoryManager.get(player).getPet() != null) {
+            PetManager.onOwnerMove(player, event.getTo());
         }
     }
 }
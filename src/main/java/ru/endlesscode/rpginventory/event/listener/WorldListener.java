@@ -26,6 +26,7 @@ import org.bukkit.event.world.WorldSaveEvent;
 import org.jetbrains.annotations.NotNull;
 import ru.endlesscode.rpginventory.inventory.InventoryManager;
 import ru.endlesscode.rpginventory.inventory.backpack.BackpackManager;
+import ru.endlesscode.rpginventory.utils.Log;
 
 /**
  * Created by OsipXD on 24.11.2015
@@ -39,10 +40,22 @@ public class WorldListener implements Listener {
             return;
         }
 
-        BackpackManager.saveBackpacks();
+        int savedBackpacks = BackpackManager.saveBackpacks();
+        int loadedBackpacks = BackpackManager.getLoadedCount();
 
+        int savedInventories = 0;
+        int loadedInventories = 0;
         for (Player player : Bukkit.getServer().getOnlinePlayers()) {
-            InventoryManager.savePlayerInventory(player);
+            if (InventoryManager.savePlayerInventory(player)) {
+                savedInventories++;
+            }
+            if (InventoryManager.playerIsLoaded(player)) {
+                loadedInventories++;
+            }
         }
+
+        Log.i("Saved {0} inventories and {1} backpacks; skipped unchanged: {2} inventories and {3} backpacks",
+                savedInventories, savedBackpacks,
+                loadedInventories - savedInventories, loadedBackpacks - savedBackpacks);
     }
 }
@@ -18,16 +18,10 @@
 
 package ru.endlesscode.rpginventory.event.updater;
 
-import org.bukkit.attribute.Attribute;
-import org.bukkit.attribute.AttributeInstance;
-import org.bukkit.attribute.AttributeModifier;
 import org.bukkit.entity.Player;
 import ru.endlesscode.inspector.bukkit.scheduler.TrackedBukkitRunnable;
 import ru.endlesscode.rpginventory.inventory.InventoryManager;
 import ru.endlesscode.rpginventory.inventory.PlayerWrapper;
-import ru.endlesscode.rpginventory.item.ItemManager;
-import ru.endlesscode.rpginventory.item.ItemStat;
-import ru.endlesscode.rpginventory.pet.Attributes;
 
 /**
  * Created by OsipXD on 21.09.2015
@@ -48,29 +42,11 @@ public class StatsUpdater extends TrackedBukkitRunnable {
         }
 
         PlayerWrapper playerWrapper = InventoryManager.get(this.player);
+        playerWrapper.onStatsUpdate();
+        // Items could be moved after the update has been requested
+        playerWrapper.getStatsCache().invalidate();
         playerWrapper.updatePermissions();
-
-        // Update speed
-        AttributeInstance speedAttribute = this.player.getAttribute(Attribute.GENERIC_MOVEMENT_SPEED);
-        assert speedAttribute != null;
-        AttributeModifier rpgInvModifier = null;
-        for (AttributeModifier modifier : speedAttribute.getModifiers()) {
-            if (modifier.getUniqueId().compareTo(Attributes.SPEED_MODIFIER_ID) == 0) {
-                rpgInvModifier = modifier;
-            }
-        }
-
-        if (rpgInvModifier != null) {
-            speedAttribute.removeModifier(rpgInvModifier);
-        }
-
-        rpgInvModifier = new AttributeModifier(
-                Attributes.SPEED_MODIFIER_ID, Attributes.SPEED_MODIFIER,
-                ItemManager.getModifier(this.player, ItemStat.StatType.SPEED).getMultiplier() - 1,
-                AttributeModifier.Operation.MULTIPLY_SCALAR_1
-        );
-
-        speedAttribute.addModifier(rpgInvModifier);
+        playerWrapper.updateSpeed();
 
         // Update info slots
         if (playerWrapper.isOpened()) {
@@ -41,16 +41,21 @@ import ru.endlesscode.rpginventory.event.PetUnequipEvent;
 import ru.endlesscode.rpginventory.event.PlayerInventoryLoadEvent;
 import ru.endlesscode.rpginventory.event.PlayerInventoryUnloadEvent;
 import ru.endlesscode.rpginventory.event.listener.InventoryListener;
+import ru.endlesscode.rpginventory.inventory.backpack.BackpackManager;
 import ru.endlesscode.rpginventory.inventory.slot.Slot;
 import ru.endlesscode.rpginventory.inventory.slot.SlotManager;
 import ru.endlesscode.rpginventory.item.ItemManager;
 import ru.endlesscode.rpginventory.item.Texture;
 import ru.endlesscode.rpginventory.misc.config.Config;
+import ru.endlesscode.rpginventory.misc.serialization.InventorySnapshot;
 import ru.endlesscode.rpginventory.misc.serialization.Serialization;
-import ru.endlesscode.rpginventory.mysql.MysqlConn;
 import ru.endlesscode.rpginventory.pet.PetManager;
 import ru.endlesscode.rpginventory.pet.PetType;
 import ru.endlesscode.rpginventory.resourcepack.ResourcePackModule;
+import ru.endlesscode.rpginventory.storage.InventoryStorage;
+import ru.endlesscode.rpginventory.storage.RecordType;
+import ru.endlesscode.rpginventory.storage.SaveQueue;
+import ru.endlesscode.rpginventory.storage.StorageManager;
 import ru.endlesscode.rpginventory.utils.EffectUtils;
 import ru.endlesscode.rpginventory.utils.InventoryUtils;
 import ru.endlesscode.rpginventory.utils.ItemUtils;
@@ -60,12 +65,11 @@ import ru.endlesscode.rpginventory.utils.SafeEnums;
 import ru.endlesscode.rpginventory.utils.StringUtils;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 
 public class InventoryManager {
@@ -300,8 +304,13 @@ public class InventoryManager {
 
     public static void syncQuickSlots(PlayerWrapper playerWrapper) {
         Player player = (Player) playerWrapper.getPlayer();
+        Inventory inventory = playerWrapper.getInventory();
         for (Slot quickSlot : SlotManager.instance().getQuickSlots()) {
-            playerWrapper.getInventory().setItem(quickSlot.getSlotId(), player.getInventory().getItem(quickSlot.getQuickSlot()));
+            ItemStack item = player.getInventory().getItem(quickSlot.getQuickSlot());
+            if (!Objects.equals(inventory.getItem(quickSlot.getSlotId()), item)) {
+                inventory.setItem(quickSlot.getSlotId(), item);
+                playerWrapper.markDirty();
+            }
         }
     }
 
@@ -342,7 +351,11 @@ public class InventoryManager {
 
         Player player = (Player) playerWrapper.getPlayer();
         ItemStack itemInHand = player.getEquipment().getItemInOffHand();
-        playerWrapper.getInventory().setItem(slot.getSlotId(), ItemUtils.isEmpty(itemInHand) ? slot.getCup() : itemInHand);
+        ItemStack item = ItemUtils.isEmpty(itemInHand) ? slot.getCup() : itemInHand;
+        if (!Objects.equals(playerWrapper.getInventory().getItem(slot.getSlotId()), item)) {
+            playerWrapper.getInventory().setItem(slot.getSlotId(), item);
+            playerWrapper.markDirty();
+        }
     }
 
     private static void updateInventory(
@@ -457,13 +470,7 @@ public class InventoryManager {
 
     @Nullable
     public static Slot getQuickSlot(int slot) {
-        for (Slot quickSlot : SlotManager.instance().getQuickSlots()) {
-            if (slot == quickSlot.getQuickSlot()) {
-                return quickSlot;
-            }
-        }
-
-        return null;
+        return SlotManager.instance().getQuickSlot(slot);
     }
 
     static void lockQuickSlots(@NotNull Player player) {
@@ -492,11 +499,21 @@ public class InventoryManager {
     }
 
     public static boolean isNewPlayer(@NotNull Player player) {
-        if (RPGInventory.getInstance().onMysql()) {
-            return MysqlConn.checkNull(MysqlConn.TableInventory, player.getUniqueId().toString());
+        InventoryPrefetcher.Prefetched prefetched = InventoryPrefetcher.peek(player.getUniqueId());
+        if (prefetched != null) {
+            return !prefetched.hasInventory();
+        }
+
+        if (SaveQueue.isPending(saveKey(player.getUniqueId()))) {
+            return false;
+        }
+
+        try {
+            return !StorageManager.getStorage().exists(RecordType.INVENTORY, player.getUniqueId());
+        } catch (IOException e) {
+            Log.w(e, "Failed to check {0}''s inventory", player.getName());
+            return false;
         }
-        Path dataFolder = RPGInventory.getInstance().getDataFolder().toPath();
-        return Files.notExists(dataFolder.resolve("inventories/" + player.getUniqueId() + ".inv"));
     }
 
     public static void loadPlayerInventory(Player player) {
@@ -507,34 +524,25 @@ public class InventoryManager {
 
         try {
             PlayerWrapper playerWrapper = null;
-            if (RPGInventory.getInstance().onMysql()) {
-                String uuid = player.getUniqueId().toString();
-                if (!MysqlConn.checkNull(MysqlConn.TableInventory, uuid)) {
-                    String data = MysqlConn.getData(MysqlConn.TableInventory, uuid);
-                    if (data == null) {
-                        Log.s("Error on loading {0}''s inventory.", player.getName());
-                        Log.s("Will be created new inventory. Old file was renamed.");
-                    } else {
-                        playerWrapper = Serialization.loadPlayerOrNull(player, data);
-                        if (playerWrapper == null) {
-                            Log.s("Error on loading {0}''s inventory.", player.getName());
-                            Log.s("Will be created new inventory. Old file was renamed.");
-                        }
-                    }
-                }
-            } else {
-                Path dataFolder = RPGInventory.getInstance().getDataPath();
-                Path folder = dataFolder.resolve("inventories");
-                Files.createDirectories(folder);
-
-                // Load inventory from file
-                Path file = folder.resolve(player.getUniqueId() + ".inv");
+            InventoryPrefetcher.Prefetched prefetched = InventoryPrefetcher.take(player.getUniqueId());
+            if (prefetched == null) {
+                SaveQueue.flush(saveKey(player.getUniqueId()));
+            }
 
-                if (Files.exists(file)) {
-                    playerWrapper = Serialization.loadPlayerOrNull(player, file);
+            if (prefetched != null) {
+                playerWrapper = prefetched.restore(player);
+            } else {
+                InventoryStorage storage = StorageManager.getStorage();
+                byte[] data = storage.load(RecordType.INVENTORY, player.getUniqueId());
+                if (data != null) {
+                    playerWrapper = Serialization.loadPlayerOrNull(player, data);
                     if (playerWrapper == null) {
                         Log.s("Error on loading {0}''s inventory.", player.getName());
-                        Log.s("Will be created new inventory. Old file was renamed.");
+                        if (storage.markBroken(RecordType.INVENTORY, player.getUniqueId())) {
+                            Log.s("Will be created new inventory. Old record was kept for manual recovery.");
+                        } else {
+                            Log.s("Will be created new inventory.");
+                        }
                     }
                 }
             }
@@ -542,6 +550,9 @@ public class InventoryManager {
             if (playerWrapper == null) {
                 playerWrapper = new PlayerWrapper(player);
                 playerWrapper.setBuyedSlots(0);
+            } else {
+                // Loaded inventory is the same as saved one
+                playerWrapper.markClean();
             }
 
             PlayerInventoryLoadEvent.Pre event = new PlayerInventoryLoadEvent.Pre(player);
@@ -555,6 +566,7 @@ public class InventoryManager {
 
             InventoryLocker.lockSlots(player);
             PetManager.initPlayer(player);
+            preloadBackpack(player, playerWrapper);
 
             RPGInventory.getInstance().getServer().getPluginManager().callEvent(new PlayerInventoryLoadEvent.Post(player));
         } catch (IOException e) {
@@ -562,7 +574,38 @@ public class InventoryManager {
         }
     }
 
+    private static void preloadBackpack(@NotNull Player player, @NotNull PlayerWrapper playerWrapper) {
+        Slot backpackSlot = SlotManager.instance().getBackpackSlot();
+        if (backpackSlot == null) {
+            return;
+        }
+
+        ItemStack bpItem = backpackSlot.isQuick()
+                ? player.getInventory().getItem(backpackSlot.getQuickSlot())
+                : playerWrapper.getInventory().getItem(backpackSlot.getSlotId());
+        BackpackManager.preloadBackpack(bpItem);
+    }
+
+    /**
+     * Fetches and decodes saved inventory of the player, so it can be restored on join
+     * without blocking the main thread. Should be called asynchronously.
+     *
+     * @param uuid UUID of the player
+     */
+    public static void prefetchPlayerInventory(@NotNull UUID uuid) {
+        SaveQueue.flush(saveKey(uuid));
+        try {
+            byte[] data = StorageManager.getStorage().load(RecordType.INVENTORY, uuid);
+            InventorySnapshot snapshot = data == null ? null : Serialization.loadInventorySnapshot(data);
+            InventoryPrefetcher.put(uuid, snapshot);
+        } catch (Exception e) {
+            // Legacy and broken inventories will be handled on join
+            Log.d(e);
+        }
+    }
+
     public static void unloadPlayerInventory(@NotNull Player player) {
+        InventoryPrefetcher.invalidate(player.getUniqueId());
         if (!InventoryManager.playerIsLoaded(player)) {
             return;
         }
@@ -576,34 +619,52 @@ public class InventoryManager {
         RPGInventory.getInstance().getServer().getPluginManager().callEvent(new PlayerInventoryUnloadEvent.Post(player));
     }
 
-    public static void savePlayerInventory(@NotNull Player player) {
+    /**
+     * Saves inventory of the player if it was changed since the last save.
+     *
+     * @return true if inventory was saved, false if it was skipped
+     */
+    public static boolean savePlayerInventory(@NotNull Player player) {
         if (!InventoryManager.playerIsLoaded(player)) {
-            return;
+            return false;
         }
 
         PlayerWrapper playerWrapper = InventoryManager.INVENTORIES.get(player.getUniqueId());
-        try {
-            if (RPGInventory.getInstance().onMysql()) {
-                String data = Serialization.save(playerWrapper.createSnapshot());
-                String uuid = player.getUniqueId().toString();
-                if (MysqlConn.checkNull(MysqlConn.TableInventory, uuid)) {
-                    MysqlConn.setData(MysqlConn.TableInventory, uuid, data);
-                } else {
-                    MysqlConn.update(MysqlConn.TableInventory, uuid, data);
-                }
-            } else {
-                Path dataFolder = RPGInventory.getInstance().getDataPath();
-                Path folder = dataFolder.resolve("inventories");
-                Files.createDirectories(folder);
+        if (!playerWrapper.isDirty()) {
+            return false;
+        }
 
-                Path file = folder.resolve(player.getUniqueId() + ".inv");
-                Files.deleteIfExists(file);
+        // Only snapshot is taken on the main thread, encoding and writing are deferred
+        UUID uuid = player.getUniqueId();
+        InventorySnapshot snapshot = playerWrapper.createSnapshot();
+        playerWrapper.markClean();
+        SaveQueue.submit(saveKey(uuid), new SaveQueue.SaveTask(RecordType.INVENTORY, uuid,
+                () -> Serialization.save(snapshot), null,
+                () -> markUnsaved(uuid, playerWrapper)));
+        return true;
+    }
 
-                Serialization.save(playerWrapper.createSnapshot(), file);
-            }
-        } catch (IOException | NullPointerException e) {
-            Log.w(e, "Error on inventory save");
+    /**
+     * Marks the inventory as changed again after failed save, so it will be saved with the next save.
+     */
+    private static void markUnsaved(@NotNull UUID playerId, @NotNull PlayerWrapper playerWrapper) {
+        RPGInventory instance = RPGInventory.getInstance();
+        if (!instance.isEnabled()) {
+            return;
         }
+
+        instance.getServer().getScheduler().runTask(instance, () -> {
+            if (InventoryManager.INVENTORIES.get(playerId) == playerWrapper) {
+                playerWrapper.markDirty();
+            } else {
+                Log.s("Inventory {0} was unloaded and its changes weren''t saved", playerId.toString());
+            }
+        });
+    }
+
+    @NotNull
+    private static String saveKey(@NotNull UUID uuid) {
+        return "inventory/" + uuid;
     }
 
     @NotNull
@@ -618,13 +679,7 @@ public class InventoryManager {
 
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     public static boolean isQuickEmptySlot(@Nullable ItemStack item) {
-        for (Slot quickSlot : SlotManager.instance().getQuickSlots()) {
-            if (quickSlot.isCup(item)) {
-                return true;
-            }
-        }
-
-        return false;
+        return SlotManager.instance().isQuickCup(item);
     }
 
     public static boolean isFilledSlot(@Nullable ItemStack item) {
@@ -632,13 +687,7 @@ public class InventoryManager {
     }
 
     public static boolean isEmptySlot(@Nullable ItemStack item) {
-        for (Slot slot : SlotManager.instance().getSlots()) {
-            if (slot.isCup(item)) {
-                return true;
-            }
-        }
-
-        return false;
+        return SlotManager.instance().getSlotByCup(item) != null;
     }
 
     @Contract("null -> false")
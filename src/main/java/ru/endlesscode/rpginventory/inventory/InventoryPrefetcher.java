@@ -0,0 +1,87 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.inventory;
+
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.rpginventory.misc.serialization.InventorySnapshot;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short-lived storage of inventories fetched and decoded during pre-login.
+ * Join only restores the snapshot instead of reading it on the main thread.
+ */
+final class InventoryPrefetcher {
+
+    // Resource pack loading can delay inventory loading for a while
+    private static final long PREFETCH_TTL = 60 * 1000;
+
+    private static final Map<UUID, Prefetched> PREFETCHED = new ConcurrentHashMap<>();
+
+    private InventoryPrefetcher() {
+    }
+
+    static void put(@NotNull UUID uuid, @Nullable InventorySnapshot snapshot) {
+        PREFETCHED.values().removeIf(Prefetched::isExpired);
+        PREFETCHED.put(uuid, new Prefetched(snapshot));
+    }
+
+    @Nullable
+    static Prefetched peek(@NotNull UUID uuid) {
+        Prefetched prefetched = PREFETCHED.get(uuid);
+        return prefetched == null || prefetched.isExpired() ? null : prefetched;
+    }
+
+    @Nullable
+    static Prefetched take(@NotNull UUID uuid) {
+        Prefetched prefetched = PREFETCHED.remove(uuid);
+        return prefetched == null || prefetched.isExpired() ? null : prefetched;
+    }
+
+    static void invalidate(@NotNull UUID uuid) {
+        PREFETCHED.remove(uuid);
+    }
+
+    static final class Prefetched {
+        @Nullable
+        private final InventorySnapshot snapshot;
+        private final long fetchTime = System.currentTimeMillis();
+
+        private Prefetched(@Nullable InventorySnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        boolean hasInventory() {
+            return this.snapshot != null;
+        }
+
+        @Nullable
+        PlayerWrapper restore(@NotNull Player player) {
+            return this.snapshot == null ? null : this.snapshot.restore(player);
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() - this.fetchTime > PREFETCH_TTL;
+        }
+    }
+}
@@ -53,13 +53,15 @@ public class InventorySaver {
     public static void save(@NotNull Player player, @NotNull List<ItemStack> drops, boolean saveItems, boolean saveArmor, boolean saveRpgInv) {
         PlayerWrapper playerWrapper = InventoryManager.get(player);
         Inventory inventory = playerWrapper.getInventory();
+        // Items can be dropped from RPG inventory on death
+        playerWrapper.markDirty();
         InventoryManager.syncArmor(playerWrapper);
         InventoryManager.syncQuickSlots(playerWrapper);
         InventoryManager.syncShieldSlot(playerWrapper);
 
         // Save armor
         List<ItemStack> armorList = new ArrayList<>(4);
-        List<Slot> armorSlots = SlotManager.instance().getArmorSlots();
+        List<Slot> armorSlots = new ArrayList<>(SlotManager.instance().getArmorSlots());
 
         for (ItemStack armor : player.getInventory().getArmorContents()) {
             CustomItem armorItem = ItemManager.getCustomItem(armor);
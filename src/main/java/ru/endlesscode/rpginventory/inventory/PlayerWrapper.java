@@ -41,6 +41,8 @@ import ru.endlesscode.rpginventory.inventory.slot.Slot;
 import ru.endlesscode.rpginventory.inventory.slot.SlotManager;
 import ru.endlesscode.rpginventory.item.CustomItem;
 import ru.endlesscode.rpginventory.item.ItemManager;
+import ru.endlesscode.rpginventory.item.ItemStat;
+import ru.endlesscode.rpginventory.item.StatsCache;
 import ru.endlesscode.rpginventory.misc.serialization.InventorySnapshot;
 import ru.endlesscode.rpginventory.pet.Attributes;
 import ru.endlesscode.rpginventory.pet.PetManager;
@@ -50,8 +52,11 @@ import ru.endlesscode.rpginventory.utils.Log;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by OsipXD on 09.11.2015
@@ -63,7 +68,9 @@ public class PlayerWrapper implements InventoryHolder {
     private final OfflinePlayer player;
     private final Inventory inventory;
     private final Map<String, Integer> buyedSlots = new HashMap<>();
-    private final List<String> permissions = new ArrayList<>();
+    // Permissions given by equipped items
+    private final Set<String> permissions = new LinkedHashSet<>();
+    private final StatsCache statsCache = new StatsCache();
 
     @Nullable
     private InventoryView inventoryView;
@@ -84,6 +91,13 @@ public class PlayerWrapper implements InventoryHolder {
     private long lastMessageTime = 0;
     private boolean pocketCraft = false;
 
+    // New inventories are dirty until the first save
+    private boolean dirty = true;
+
+    private boolean statsUpdatePending = false;
+    // Amount of the applied speed modifier, NaN if modifier isn't applied
+    private double speedModifierAmount = Double.NaN;
+
     public PlayerWrapper(OfflinePlayer player) {
         this.player = player;
         this.inventory = Bukkit.createInventory(this, 54, InventoryManager.TITLE);
@@ -159,6 +173,7 @@ public class PlayerWrapper implements InventoryHolder {
 
     private void setBuyedSlots(String slotType, int buyedSlots) {
         this.buyedSlots.put(slotType, buyedSlots);
+        this.markDirty();
     }
 
     public boolean isBuyedSlot(String slotType) {
@@ -188,23 +203,16 @@ public class PlayerWrapper implements InventoryHolder {
         }
     }
 
-    private void clearPermissions() {
-        try {
-            for (String permission : this.permissions) {
-                RPGInventory.getPermissions().playerRemove(this.player.getPlayer(), permission);
-            }
-
-            this.permissions.clear();
-        } catch (Exception e) {
-            Log.w(e);
-        }
-    }
-
     private void clearStats() {
         Player player = this.player.getPlayer();
 
         AttributeInstance speedAttribute = player.getAttribute(Attribute.GENERIC_MOVEMENT_SPEED);
         assert speedAttribute != null;
+        removeSpeedModifier(speedAttribute);
+        this.speedModifierAmount = Double.NaN;
+    }
+
+    private static void removeSpeedModifier(@NotNull AttributeInstance speedAttribute) {
         AttributeModifier rpgInvModifier = null;
         for (AttributeModifier modifier : speedAttribute.getModifiers()) {
             if (modifier.getUniqueId().compareTo(Attributes.SPEED_MODIFIER_ID) == 0) {
@@ -294,6 +302,7 @@ public class PlayerWrapper implements InventoryHolder {
         if (savedChestplate != null && elytraSlot != null) {
             Player player = this.player.getPlayer();
             this.inventory.setItem(elytraSlot.getSlotId(), player.getEquipment().getChestplate());
+            this.markDirty();
             player.getEquipment().setChestplate(this.savedChestplate);
             this.savedChestplate = null;
         }
@@ -328,38 +337,118 @@ public class PlayerWrapper implements InventoryHolder {
             ItemStack petItem = inventory.getItem(PetManager.getPetSlotId());
             if (petItem != null) {
                 inventory.setItem(PetManager.getPetSlotId(), PetType.clone(petItem));
+                this.markDirty();
             }
         }
     }
 
+    /**
+     * Marks the inventory as changed since the last save.
+     * Should be called on every change of the RPG inventory contents.
+     */
+    public void markDirty() {
+        this.dirty = true;
+    }
+
+    public boolean isDirty() {
+        return this.dirty;
+    }
+
+    void markClean() {
+        this.dirty = false;
+    }
+
+    @NotNull
+    public StatsCache getStatsCache() {
+        return this.statsCache;
+    }
+
+    /**
+     * Schedules stats update on the next tick. Several requests in the same tick are coalesced.
+     */
     public void updateStatsLater() {
+        if (this.statsUpdatePending) {
+            return;
+        }
+
+        this.statsUpdatePending = true;
         new StatsUpdater(player.getPlayer()).runTaskLater(RPGInventory.getInstance(), 1);
     }
 
+    /**
+     * Should be called by the stats updater before the update, so the next update can be scheduled.
+     */
+    public void onStatsUpdate() {
+        this.statsUpdatePending = false;
+    }
+
+    /**
+     * Gives permissions of equipped items and takes permissions of removed items.
+     * Permissions that weren't changed are not touched.
+     */
     public void updatePermissions() {
         Player player = this.player.getPlayer();
-        this.clearPermissions();
-        List<CustomItem> customItems = new ArrayList<>();
+        Set<String> newPermissions = new LinkedHashSet<>();
         for (ItemStack item : this.getInventory().getContents()) {
-            if (CustomItem.isCustomItem(item)) {
-                customItems.add(ItemManager.getCustomItem(item));
-            }
+            addItemPermissions(newPermissions, item);
         }
+        addItemPermissions(newPermissions, player.getEquipment().getItemInOffHand());
+        addItemPermissions(newPermissions, player.getEquipment().getItemInMainHand());
 
-        ItemStack itemInOffHand = player.getEquipment().getItemInOffHand();
-        ItemStack itemInMainHand = player.getEquipment().getItemInMainHand();
+        if (newPermissions.equals(this.permissions)) {
+            return;
+        }
 
-        if (CustomItem.isCustomItem(itemInOffHand)) {
-            customItems.add(ItemManager.getCustomItem(itemInOffHand));
+        try {
+            Iterator<String> iterator = this.permissions.iterator();
+            while (iterator.hasNext()) {
+                String permission = iterator.next();
+                if (!newPermissions.contains(permission)) {
+                    RPGInventory.getPermissions().playerRemove(player, permission);
+                    iterator.remove();
+                }
+            }
+        } catch (Exception e) {
+            Log.w(e);
         }
 
-        if (CustomItem.isCustomItem(itemInMainHand)) {
-            customItems.add(ItemManager.getCustomItem(itemInMainHand));
+        newPermissions.removeAll(this.permissions);
+        this.addPermissions(new ArrayList<>(newPermissions));
+    }
+
+    private static void addItemPermissions(@NotNull Set<String> permissions, @Nullable ItemStack item) {
+        CustomItem customItem = ItemManager.getCustomItem(item);
+        if (customItem != null) {
+            permissions.addAll(customItem.getPermissions());
         }
+    }
+
+    /**
+     * Speed modifier will be applied again on the next update, even if it wasn't changed.
+     * Should be called when the player entity could lose its modifiers, for example on respawn.
+     */
+    public void invalidateSpeed() {
+        this.speedModifierAmount = Double.NaN;
+    }
 
-        for (CustomItem customItem : customItems) {
-            customItem.onEquip(player);
+    /**
+     * Applies speed modifier of equipped items, if it was changed.
+     */
+    public void updateSpeed() {
+        Player player = this.player.getPlayer();
+        double amount = ItemManager.getModifier(player, ItemStat.StatType.SPEED).getMultiplier() - 1;
+        if (amount == this.speedModifierAmount) {
+            return;
         }
+
+        AttributeInstance speedAttribute = player.getAttribute(Attribute.GENERIC_MOVEMENT_SPEED);
+        assert speedAttribute != null;
+        removeSpeedModifier(speedAttribute);
+        speedAttribute.addModifier(new AttributeModifier(
+                Attributes.SPEED_MODIFIER_ID, Attributes.SPEED_MODIFIER, amount,
+                AttributeModifier.Operation.MULTIPLY_SCALAR_1
+        ));
+        this.speedModifierAmount = amount;
     }
 
     public String getLastMessage() {
@@ -49,6 +49,9 @@ public class Backpack implements ConfigurationSerializable {
 
     private long lastUse;
     private ItemStack[] contents;
+    private int viewers = 0;
+    // New backpacks are dirty until the first save
+    private boolean dirty = true;
 
     public Backpack(@NotNull BackpackType backpackType) {
         this(backpackType, UUID.randomUUID());
@@ -122,22 +125,72 @@ public class Backpack implements ConfigurationSerializable {
 
         player.openInventory(inventory);
         InventoryManager.get(player).setBackpack(this);
+        this.viewers++;
+    }
+
+    public void onClose() {
+        if (this.viewers > 0) {
+            this.viewers--;
+        }
+    }
+
+    boolean isOpened() {
+        return this.viewers > 0;
+    }
+
+    /**
+     * Creates a copy of the backpack that can be serialized asynchronously.
+     */
+    @NotNull
+    Backpack createSnapshot() {
+        ItemStack[] contents = new ItemStack[this.contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = this.contents[i] == null ? null : this.contents[i].clone();
+        }
+
+        Backpack snapshot = new Backpack(this.backpackType, this.id);
+        snapshot.setContents(contents);
+        snapshot.setLastUse(this.lastUse);
+        return snapshot;
     }
 
     public void setContents(ItemStack[] contents) {
         this.contents = contents;
+        this.dirty = true;
     }
 
     public void onUse() {
         this.lastUse = System.currentTimeMillis();
+        this.dirty = true;
     }
 
     public void setLastUse(long lastUse) {
         this.lastUse = lastUse;
+        this.dirty = true;
+    }
+
+    boolean isDirty() {
+        return this.dirty;
+    }
+
+    void markClean() {
+        this.dirty = false;
+    }
+
+    void markDirty() {
+        this.dirty = true;
+    }
+
+    long getLastUse() {
+        return this.lastUse;
     }
 
     boolean isOverdue() {
+        return isOverdue(this.lastUse);
+    }
+
+    static boolean isOverdue(long lastUse) {
         int lifeTime = Config.getConfig().getInt("backpacks.expiration-time", 0);
-        return lifeTime != 0 && (System.currentTimeMillis() - this.lastUse) / (1_000 * 60 * 60 * 24) > lifeTime;
+        return lifeTime != 0 && (System.currentTimeMillis() - lastUse) / (1_000 * 60 * 60 * 24) > lifeTime;
     }
 }
@@ -0,0 +1,116 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.inventory.backpack;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * LRU cache of loaded backpacks, bounded by total number of slots.
+ * <p>
+ * Opened backpacks are never evicted. Evicted backpacks are passed to the saver before removal.
+ * Should be used only from the main thread.
+ */
+final class BackpackCache {
+
+    private final LinkedHashMap<UUID, Backpack> backpacks = new LinkedHashMap<>(16, 0.75f, true);
+    private final Consumer<Backpack> saver;
+
+    private int maxSlots;
+    private int slots = 0;
+
+    BackpackCache(int maxSlots, @NotNull Consumer<Backpack> saver) {
+        this.maxSlots = maxSlots;
+        this.saver = saver;
+    }
+
+    @Nullable
+    Backpack get(@Nullable UUID uuid) {
+        return uuid == null ? null : backpacks.get(uuid);
+    }
+
+    boolean contains(@NotNull UUID uuid) {
+        return backpacks.containsKey(uuid);
+    }
+
+    void put(@NotNull Backpack backpack) {
+        Backpack previous = backpacks.put(backpack.getUniqueId(), backpack);
+        if (previous != null) {
+            slots -= previous.getType().getSize();
+        }
+        slots += backpack.getType().getSize();
+        evict();
+    }
+
+    @Nullable
+    Backpack remove(@NotNull UUID uuid) {
+        Backpack backpack = backpacks.remove(uuid);
+        if (backpack != null) {
+            slots -= backpack.getType().getSize();
+        }
+        return backpack;
+    }
+
+    @NotNull
+    List<Backpack> values() {
+        return new ArrayList<>(backpacks.values());
+    }
+
+    int size() {
+        return backpacks.size();
+    }
+
+    void setMaxSlots(int maxSlots) {
+        this.maxSlots = maxSlots;
+        evict();
+    }
+
+    void clear() {
+        backpacks.clear();
+        slots = 0;
+    }
+
+    /**
+     * Saves and removes least recently used backpacks until the cache fits its limit.
+     */
+    void evict() {
+        if (maxSlots <= 0) {
+            return;
+        }
+
+        Iterator<Backpack> iterator = backpacks.values().iterator();
+        while (slots > maxSlots && iterator.hasNext()) {
+            Backpack backpack = iterator.next();
+            if (backpack.isOpened()) {
+                continue;
+            }
+
+            saver.accept(backpack);
+            iterator.remove();
+            slots -= backpack.getType().getSize();
+        }
+    }
+}
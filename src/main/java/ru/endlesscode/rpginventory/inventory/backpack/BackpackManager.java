@@ -29,6 +29,7 @@ import org.bukkit.inventory.ItemStack;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.inspector.bukkit.scheduler.TrackedBukkitRunnable;
 import ru.endlesscode.inspector.report.Reporter;
 import ru.endlesscode.rpginventory.RPGInventory;
 import ru.endlesscode.rpginventory.event.listener.BackpackListener;
@@ -38,18 +39,22 @@ import ru.endlesscode.rpginventory.inventory.slot.SlotManager;
 import ru.endlesscode.rpginventory.item.Texture;
 import ru.endlesscode.rpginventory.misc.config.Config;
 import ru.endlesscode.rpginventory.misc.serialization.Serialization;
-import ru.endlesscode.rpginventory.mysql.MysqlConn;
-import ru.endlesscode.rpginventory.utils.FileUtils;
+import ru.endlesscode.rpginventory.storage.InventoryStorage;
+import ru.endlesscode.rpginventory.storage.RecordType;
+import ru.endlesscode.rpginventory.storage.SaveQueue;
+import ru.endlesscode.rpginventory.storage.StorageManager;
 import ru.endlesscode.rpginventory.utils.ItemUtils;
 import ru.endlesscode.rpginventory.utils.Log;
+import ru.endlesscode.rpginventory.utils.PlayerUtils;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -62,10 +67,14 @@ public class BackpackManager {
     private static final String CONFIG_NAME = "backpacks.yml";
 
     private static final HashMap<String, BackpackType> BACKPACK_TYPES = new HashMap<>();
-    private static final HashMap<UUID, Backpack> BACKPACKS = new HashMap<>();
+    private static final BackpackCache BACKPACKS = new BackpackCache(0, BackpackManager::saveBackpack);
+    // Backpacks that are being loaded asynchronously
+    private static final Set<UUID> PRELOADING = new HashSet<>();
     private static int BACKPACK_LIMIT;
 
     private static Reporter reporter;
+    @Nullable
+    private static volatile BackpackSweeper sweeper;
 
     public static boolean init(@NotNull RPGInventory instance) {
         if (!isEnabled()) {
@@ -102,13 +111,15 @@ public class BackpackManager {
                 return false;
             }
 
+            // Backpacks are loaded on demand
             BACKPACKS.clear();
-            BackpackManager.loadBackpacks();
+            PRELOADING.clear();
+            BACKPACKS.setMaxSlots(Config.getConfig().getInt("backpacks.cache-slots", 27_000));
 
             Log.i("{0} backpack type(s) has been loaded", BACKPACK_TYPES.size());
-            Log.i("{0} backpack(s) has been loaded", BACKPACKS.size());
 
             BACKPACK_LIMIT = Config.getConfig().getInt("backpacks.limit", 0);
+            startSweeper(instance);
 
             // Register events
             instance.getServer().getPluginManager().registerEvents(new BackpackListener(), instance);
@@ -119,6 +130,48 @@ public class BackpackManager {
         }
     }
 
+    private static void startSweeper(@NotNull RPGInventory instance) {
+        stopSweeper();
+
+        int rate = Config.getConfig().getInt("backpacks.sweep-rate", 50);
+        if (rate <= 0 || Config.getConfig().getInt("backpacks.expiration-time", 0) == 0) {
+            return;
+        }
+
+        sweeper = new BackpackSweeper(instance, rate, BackpackManager::releaseExpired);
+        sweeper.start();
+    }
+
+    public static void stopSweeper() {
+        if (sweeper != null) {
+            sweeper.stop();
+            sweeper = null;
+        }
+    }
+
+    /**
+     * Unloads the expired backpack, if it is not in use.
+     *
+     * @return true if the backpack can be deleted from storage
+     */
+    private static boolean releaseExpired(@NotNull UUID uuid) {
+        if (PRELOADING.contains(uuid) || SaveQueue.isPending(saveKey(uuid))) {
+            return false;
+        }
+
+        Backpack backpack = BACKPACKS.get(uuid);
+        if (backpack == null) {
+            return true;
+        }
+
+        if (backpack.isOpened() || !backpack.isOverdue()) {
+            return false;
+        }
+
+        BACKPACKS.remove(uuid);
+        return true;
+    }
+
     private static void tryToAddBackpack(String name, @NotNull ConfigurationSection config) {
         try {
             Texture texture = Texture.parseTexture(config.getString("item"));
@@ -149,6 +202,12 @@ public class BackpackManager {
         return backpackType == null ? new ItemStack(Material.AIR) : backpackType.getItem();
     }
 
+    /**
+     * Opens the backpack for the player.
+     *
+     * @return true if the item is backpack and its opening was handled,
+     * even if the backpack can't be loaded now
+     */
     @Contract("_, null -> false")
     public static boolean open(@NotNull Player player, @Nullable ItemStack bpItem) {
         if (ItemUtils.isEmpty(bpItem)) {
@@ -161,195 +220,214 @@ public class BackpackManager {
             return false;
         }
 
-        Backpack backpack;
         String bpUid = ItemUtils.getTag(bpItem, ItemUtils.BACKPACK_UID_TAG);
         UUID uuid = bpUid.isEmpty() ? null : UUID.fromString(bpUid);
 
-        if (RPGInventory.getInstance().onMysql()) {
-            if (!MysqlConn.checkNull(MysqlConn.TableBackpack, bpUid)) {
-                String temp = MysqlConn.getData(MysqlConn.TableBackpack, bpUid);
-                Map.Entry<String, String> data = new Map.Entry<String, String>() {
-                    @Override
-                    public String getKey() {
-                        return bpUid;
-                    }
-
-                    @Override
-                    public String getValue() {
-                        return temp;
-                    }
-
-                    @Override
-                    public String setValue(String value) {
-                        return null;
-                    }
-                };
-                try {
-                    Backpack backpack1 = Serialization.loadBackpack(data);
-                    if (backpack1 == null || backpack1.isOverdue()) {
-                        MysqlConn.delete(MysqlConn.TableBackpack, data.getKey());
-                    } else {
-                        BACKPACKS.put(backpack1.getUniqueId(), backpack1);
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+        Backpack backpack;
+        try {
+            backpack = uuid == null ? null : getOrLoadBackpack(uuid);
+        } catch (IOException e) {
+            // New backpack shouldn't be created, it would overwrite the stored one
+            Log.w("Backpack {0} can''t be loaded now: {1}", uuid.toString(), e.toString());
+            PlayerUtils.sendMessage(player, RPGInventory.getLanguage().getMessage("backpack.unavailable"));
+            return true;
         }
-        if (!BACKPACKS.containsKey(uuid)) {
+
+        if (backpack == null) {
             if (uuid == null) {
                 backpack = type.createBackpack();
                 ItemUtils.setTag(bpItem, ItemUtils.BACKPACK_UID_TAG, backpack.getUniqueId().toString());
             } else {
                 backpack = type.createBackpack(uuid);
             }
-            BACKPACKS.put(backpack.getUniqueId(), backpack);
-        } else {
-            backpack = BACKPACKS.get(uuid);
         }
 
+        // Should be opened before caching to not be evicted
         backpack.open(player);
+        BACKPACKS.put(backpack);
         return true;
     }
 
+    /**
+     * Loads the backpack asynchronously, so it will be ready when the player opens it.
+     */
+    public static void preloadBackpack(@Nullable ItemStack bpItem) {
+        if (!isBackpack(bpItem) || getBackpackType(ItemUtils.getTag(bpItem, ItemUtils.BACKPACK_TAG)) == null) {
+            return;
+        }
+
+        String bpUid = ItemUtils.getTag(bpItem, ItemUtils.BACKPACK_UID_TAG);
+        if (bpUid.isEmpty()) {
+            return;
+        }
+
+        UUID uuid = UUID.fromString(bpUid);
+        if (BACKPACKS.contains(uuid) || !PRELOADING.add(uuid)) {
+            return;
+        }
+
+        RPGInventory instance = RPGInventory.getInstance();
+        new TrackedBukkitRunnable() {
+            @Override
+            public void run() {
+                Backpack backpack;
+                try {
+                    backpack = readBackpack(uuid);
+                } catch (IOException e) {
+                    // Will be loaded again on opening
+                    Log.w("Backpack {0} can''t be preloaded: {1}", uuid.toString(), e.toString());
+                    backpack = null;
+                }
+
+                Backpack loaded = backpack;
+                instance.getServer().getScheduler().runTask(instance, () -> {
+                    // Backpack could be loaded synchronously in the meantime
+                    if (PRELOADING.remove(uuid) && loaded != null && !BACKPACKS.contains(uuid)) {
+                        BACKPACKS.put(loaded);
+                    }
+                });
+            }
+        }.runTaskAsynchronously(instance);
+    }
+
     @Nullable
-    public static BackpackType getBackpackType(String bpId) {
-        return BACKPACK_TYPES.get(bpId);
+    private static Backpack getOrLoadBackpack(@NotNull UUID uuid) throws IOException {
+        PRELOADING.remove(uuid);
+        Backpack backpack = BACKPACKS.get(uuid);
+        return backpack == null ? readBackpack(uuid) : backpack;
     }
 
-    public static void saveBackpacks(UUID uuid) {
+    /**
+     * Reads the backpack from storage. Overdue backpacks are deleted.
+     * Backpacks that can't be decoded are kept for manual recovery.
+     *
+     * @return loaded backpack, or null if it doesn't exist or can't be decoded
+     * @throws IOException if the storage is not available, so the backpack state is unknown
+     */
+    @Nullable
+    private static Backpack readBackpack(@NotNull UUID uuid) throws IOException {
+        SaveQueue.flush(saveKey(uuid));
+        InventoryStorage storage = StorageManager.getStorage();
+        byte[] data = storage.load(RecordType.BACKPACK, uuid);
+        if (data == null) {
+            return null;
+        }
+
+        Backpack backpack;
         try {
-            Backpack backpack = BACKPACKS.get(uuid);
-            if (backpack != null) {
-                if (RPGInventory.getInstance().onMysql()) {
-                    String data = Serialization.save(backpack);
-                    if (MysqlConn.checkNull(MysqlConn.TableBackpack, uuid.toString())) {
-                        MysqlConn.setData(MysqlConn.TableBackpack, uuid.toString(), data);
-                    } else {
-                        MysqlConn.update(MysqlConn.TableBackpack, uuid.toString(), data);
-                    }
-                } else {
-                    Path folder = RPGInventory.getInstance().getDataPath().resolve("backpacks");
-                    Files.createDirectories(folder);
-                    Path bpFile = folder.resolve(uuid.toString() + ".bp");
-                    Serialization.save(backpack, bpFile);
-                }
+            backpack = Serialization.loadBackpack(uuid.toString(), data);
+        } catch (IOException | InvalidConfigurationException e) {
+            Log.w(e);
+            Log.s("Error on loading backpack {0}", uuid.toString());
+            if (storage.markBroken(RecordType.BACKPACK, uuid)) {
+                Log.s("Will be created new backpack. Old record was kept for manual recovery.");
+            } else {
+                Log.s("Will be created new backpack.");
             }
-        } catch (IOException | NullPointerException e) {
-            Log.w(e, "Error on backpack save");
+            return null;
         }
-    }
 
-    public static void saveBackpacks(String uuid) {
-        try {
-            UUID uuid1 = UUID.fromString(uuid);
-            Backpack backpack = BACKPACKS.get(uuid1);
-            if (backpack != null) {
-                if (RPGInventory.getInstance().onMysql()) {
-                    String data = Serialization.save(backpack);
-                    if (MysqlConn.checkNull(MysqlConn.TableBackpack, uuid)) {
-                        MysqlConn.setData(MysqlConn.TableBackpack, uuid, data);
-                    } else {
-                        MysqlConn.update(MysqlConn.TableBackpack, uuid, data);
-                    }
-                } else {
-                    Path folder = RPGInventory.getInstance().getDataPath().resolve("backpacks");
-                    Files.createDirectories(folder);
-                    Path bpFile = folder.resolve(uuid + ".bp");
-                    Serialization.save(backpack, bpFile);
-                }
+        if (backpack == null || backpack.isOverdue()) {
+            try {
+                storage.delete(RecordType.BACKPACK, uuid);
+            } catch (IOException e) {
+                // Will be overwritten by the new backpack
+                Log.w(e, "Error on deleting expired backpack {0}", uuid.toString());
             }
-        } catch (IOException | NullPointerException e) {
-            Log.w(e, "Error on backpack save");
+
+            BackpackSweeper currentSweeper = sweeper;
+            if (currentSweeper != null) {
+                currentSweeper.onDelete(uuid);
+            }
+            return null;
         }
+
+        backpack.markClean();
+        return backpack;
     }
 
-    public static void saveBackpacks() {
-        try {
-            if (RPGInventory.getInstance().onMysql()) {
-                for (Map.Entry<UUID, Backpack> entry : BACKPACKS.entrySet()) {
-                    String data = Serialization.save(entry.getValue());
-                    String uuid = entry.getKey().toString();
-                    if (MysqlConn.checkNull(MysqlConn.TableBackpack, uuid)) {
-                        MysqlConn.setData(MysqlConn.TableBackpack, uuid, data);
-                    } else {
-                        MysqlConn.update(MysqlConn.TableBackpack, uuid, data);
-                    }
-                }
-            } else {
-                Path folder = RPGInventory.getInstance().getDataPath().resolve("backpacks");
-                Files.createDirectories(folder);
-                for (Map.Entry<UUID, Backpack> entry : BACKPACKS.entrySet()) {
-                    Path bpFile = folder.resolve(entry.getKey().toString() + ".bp");
-                    Serialization.save(entry.getValue(), bpFile);
-                }
-            }
-        } catch (IOException | NullPointerException e) {
-            Log.w(e, "Error on backpack save");
+    @Nullable
+    public static BackpackType getBackpackType(String bpId) {
+        return BACKPACK_TYPES.get(bpId);
+    }
+
+    public static void saveBackpacks(UUID uuid) {
+        Backpack backpack = BACKPACKS.get(uuid);
+        if (backpack != null) {
+            saveBackpack(backpack);
         }
     }
 
-    private static void loadBackpacks() {
-        try {
-            if (RPGInventory.getInstance().onMysql()) {
-                Map<String, String> list = MysqlConn.getAllData(MysqlConn.TableBackpack);
-                if (list != null) {
-                    for (Map.Entry<String, String> item : list.entrySet()) {
-                        BackpackManager.tryToLoadBackpack(item);
-                    }
-                }
-            } else {
-                Path folder = RPGInventory.getInstance().getDataPath().resolve("backpacks");
-                Files.createDirectories(folder);
+    public static void saveBackpacks(String uuid) {
+        saveBackpacks(UUID.fromString(uuid));
+    }
 
-                Files.list(folder)
-                        .filter((file) -> Files.isRegularFile(file) && file.toString().endsWith(".bp"))
-                        .forEach(BackpackManager::tryToLoadBackpack);
+    /**
+     * Saves all loaded backpacks that were changed since the last save.
+     *
+     * @return number of saved backpacks
+     */
+    public static int saveBackpacks() {
+        int saved = 0;
+        for (Backpack backpack : BACKPACKS.values()) {
+            if (saveBackpack(backpack)) {
+                saved++;
             }
-        } catch (IOException e) {
-            Log.w(e, "Error on backpack loading");
         }
+
+        return saved;
     }
 
-    private static void tryToLoadBackpack(@NotNull Map.Entry<String, String> data) {
-        try {
-            loadBackpack(data);
-        } catch (IOException | InvalidConfigurationException e) {
-            Log.w(e);
-            Log.s("Error on loading backpack {0}", data.getKey());
-            Log.s("Will be created new backpack. Old file was renamed.");
-        }
+    public static int getLoadedCount() {
+        return BACKPACKS.size();
     }
 
-    private static void tryToLoadBackpack(@NotNull Path path) {
-        try {
-            loadBackpack(path);
-        } catch (IOException | InvalidConfigurationException e) {
-            Log.w(e);
-            FileUtils.resolveException(path);
-            Log.s("Error on loading backpack {0}", path.getFileName().toString());
-            Log.s("Will be created new backpack. Old file was renamed.");
+    private static boolean saveBackpack(@NotNull Backpack backpack) {
+        if (!backpack.isDirty()) {
+            return false;
         }
+
+        // Only snapshot is taken on the main thread, encoding and writing are deferred
+        Backpack snapshot = backpack.createSnapshot();
+        backpack.markClean();
+        UUID uuid = backpack.getUniqueId();
+        SaveQueue.submit(saveKey(uuid), new SaveQueue.SaveTask(RecordType.BACKPACK, uuid,
+                () -> Serialization.save(snapshot),
+                () -> onBackpackSaved(snapshot),
+                () -> markUnsaved(backpack)));
+        return true;
     }
 
-    private static void loadBackpack(@NotNull Map.Entry<String, String> data) throws IOException, InvalidConfigurationException {
-        Backpack backpack = Serialization.loadBackpack(data);
-        if (backpack == null || backpack.isOverdue()) {
-            MysqlConn.delete(MysqlConn.TableBackpack, data.getKey());
-        } else {
-            BACKPACKS.put(backpack.getUniqueId(), backpack);
+    /**
+     * Marks the backpack as changed again after failed save, so it will be saved with the next save.
+     */
+    private static void markUnsaved(@NotNull Backpack backpack) {
+        RPGInventory instance = RPGInventory.getInstance();
+        if (!instance.isEnabled()) {
+            return;
         }
+
+        instance.getServer().getScheduler().runTask(instance, () -> {
+            if (BACKPACKS.get(backpack.getUniqueId()) == backpack) {
+                backpack.markDirty();
+            } else {
+                Log.s("Backpack {0} was unloaded and its changes weren''t saved", backpack.getUniqueId().toString());
+            }
+        });
     }
 
-    private static void loadBackpack(@NotNull Path path) throws IOException, InvalidConfigurationException {
-        Backpack backpack = Serialization.loadBackpack(path);
-        if (backpack == null || backpack.isOverdue()) {
-            Files.delete(path);
-        } else {
-            BACKPACKS.put(backpack.getUniqueId(), backpack);
+    private static void onBackpackSaved(@NotNull Backpack backpack) {
+        BackpackSweeper currentSweeper = sweeper;
+        if (currentSweeper != null) {
+            currentSweeper.onSave(backpack.getUniqueId(), backpack.getLastUse());
         }
     }
 
+    @NotNull
+    static String saveKey(@NotNull UUID uuid) {
+        return "backpack/" + uuid;
+    }
+
     @Contract("null -> false")
     public static boolean isBackpack(ItemStack item) {
         return ItemUtils.isNotEmpty(item) && ItemUtils.hasTag(item, ItemUtils.BACKPACK_TAG);
@@ -0,0 +1,266 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ru.endlesscode.rpginventory.inventory.backpack;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.inspector.bukkit.scheduler.TrackedBukkitRunnable;
+import ru.endlesscode.rpginventory.RPGInventory;
+import ru.endlesscode.rpginventory.misc.serialization.Serialization;
+import ru.endlesscode.rpginventory.storage.InventoryStorage;
+import ru.endlesscode.rpginventory.storage.RecordType;
+import ru.endlesscode.rpginventory.storage.SaveQueue;
+import ru.endlesscode.rpginventory.storage.StorageManager;
+import ru.endlesscode.rpginventory.utils.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Deletes expired backpacks in background.
+ * <p>
+ * Keeps the last use time of every stored backpack, so overdue backpacks are found without loading them.
+ * The index is built on start by reading only backpack headers, then kept up to date on saves.
+ * Backpacks saved in older format have no header, they are loaded one by one after the scan,
+ * so the scan itself stays cheap.
+ * Every run deletes not more than the configured number of backpacks.
+ */
+final class BackpackSweeper extends TrackedBukkitRunnable {
+
+    static final long PERIOD = 20 * 60;
+
+    private final Map<UUID, Long> lastUses = new ConcurrentHashMap<>();
+    private final AtomicLong reclaimed = new AtomicLong();
+    private final RPGInventory plugin;
+    private final int rate;
+    // Called on the main thread, should return false if backpack is in use and can't be deleted
+    private final Predicate<UUID> releaser;
+
+    private volatile boolean indexed = false;
+    private volatile boolean sweeping = false;
+    private volatile boolean stopped = false;
+
+    BackpackSweeper(@NotNull RPGInventory plugin, int rate, @NotNull Predicate<UUID> releaser) {
+        this.plugin = plugin;
+        this.rate = rate;
+        this.releaser = releaser;
+    }
+
+    void start() {
+        // Index is built on the first run
+        this.runTaskTimerAsynchronously(plugin, 20, PERIOD);
+    }
+
+    void stop() {
+        this.stopped = true;
+        this.cancel();
+    }
+
+    void onSave(@NotNull UUID id, long lastUse) {
+        // Last use time only grows, so the index can't be rolled back by the initial scan
+        lastUses.merge(id, lastUse, Math::max);
+    }
+
+    void onDelete(@NotNull UUID id) {
+        lastUses.remove(id);
+    }
+
+    @Override
+    public void run() {
+        if (!indexed) {
+            buildIndex();
+            return;
+        }
+
+        // Previous batch is not finished yet
+        if (sweeping) {
+            return;
+        }
+
+        List<UUID> overdue = new ArrayList<>();
+        for (Map.Entry<UUID, Long> entry : lastUses.entrySet()) {
+            if (Backpack.isOverdue(entry.getValue())) {
+                overdue.add(entry.getKey());
+                if (overdue.size() >= rate) {
+                    break;
+                }
+            }
+        }
+
+        if (overdue.isEmpty()) {
+            return;
+        }
+
+        sweeping = true;
+        // Loaded backpacks can be checked only on the main thread
+        plugin.getServer().getScheduler().runTask(plugin, () -> {
+            List<UUID> released = new ArrayList<>();
+            for (UUID id : overdue) {
+                if (releaser.test(id)) {
+                    released.add(id);
+                }
+            }
+
+            if (released.isEmpty() || stopped) {
+                sweeping = false;
+                return;
+            }
+
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+                try {
+                    delete(released);
+                } finally {
+                    sweeping = false;
+                }
+            });
+        });
+    }
+
+    private void buildIndex() {
+        long startTime = System.currentTimeMillis();
+        InventoryStorage storage = StorageManager.getStorage();
+        List<UUID> legacy = new ArrayList<>();
+        try {
+            storage.forEach(RecordType.BACKPACK, (id, data) -> {
+                if (stopped) {
+                    throw new IOException("Sweeper stopped");
+                }
+
+                Long lastUse = readHeader(data);
+                if (lastUse == null) {
+                    legacy.add(id);
+                } else if (lastUse >= 0) {
+                    onSave(id, lastUse);
+                }
+            });
+
+            for (UUID id : legacy) {
+                if (stopped) {
+                    throw new IOException("Sweeper stopped");
+                }
+
+                // Could be deleted or saved in the new format after the scan
+                byte[] data = storage.load(RecordType.BACKPACK, id);
+                long lastUse = data == null ? -1 : readLastUse(id, data);
+                if (lastUse >= 0) {
+                    onSave(id, lastUse);
+                }
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                Log.w(e, "Error on indexing backpacks, expired backpacks will not be deleted");
+                this.cancel();
+            }
+            return;
+        }
+
+        indexed = true;
+        Log.i("{0} backpacks indexed for expiration in {1} ms",
+                String.valueOf(lastUses.size()), String.valueOf(System.currentTimeMillis() - startTime));
+    }
+
+    private void delete(@NotNull List<UUID> ids) {
+        InventoryStorage storage = StorageManager.getStorage();
+        int deleted = 0;
+        for (UUID id : ids) {
+            if (stopped) {
+                break;
+            }
+
+            try {
+                // Backpack could be saved after it was released, and it can't be saved while it is checked here
+                if (SaveQueue.runLocked(BackpackManager.saveKey(id), () -> deleteIfOverdue(storage, id))) {
+                    deleted++;
+                }
+            } catch (IOException e) {
+                Log.w(e, "Error on deleting expired backpack {0}", id.toString());
+            }
+        }
+
+        if (deleted > 0) {
+            Log.i("{0} expired backpacks deleted ({1} since start)",
+                    String.valueOf(deleted), String.valueOf(reclaimed.addAndGet(deleted)));
+        }
+    }
+
+    /**
+     * @return true if the backpack was deleted
+     */
+    private boolean deleteIfOverdue(@NotNull InventoryStorage storage, @NotNull UUID id) throws IOException {
+        byte[] data = storage.load(RecordType.BACKPACK, id);
+        if (data == null) {
+            lastUses.remove(id);
+            return false;
+        }
+
+        long lastUse = readLastUse(id, data);
+        if (lastUse < 0) {
+            // Broken backpacks are handled on loading
+            lastUses.remove(id);
+        } else if (Backpack.isOverdue(lastUse)) {
+            storage.delete(RecordType.BACKPACK, id);
+            lastUses.remove(id);
+            return true;
+        } else {
+            onSave(id, lastUse);
+        }
+        return false;
+    }
+
+    /**
+     * @return last use time from the header of the backpack, null if it is saved in older format without header,
+     * or -1 if it can't be read
+     */
+    @Nullable
+    private static Long readHeader(@NotNull byte[] data) {
+        try {
+            return Serialization.readBackpackLastUse(data);
+        } catch (IOException | RuntimeException e) {
+            Log.d(e);
+            return -1L;
+        }
+    }
+
+    /**
+     * @return last use time of the backpack, or -1 if it can't be read
+     */
+    private static long readLastUse(@NotNull UUID id, @NotNull byte[] data) {
+        try {
+            Long lastUse = Serialization.readBackpackLastUse(data);
+            if (lastUse != null) {
+                return lastUse;
+            }
+
+            // Saved in older format, will be converted on the next save
+            Backpack backpack = Serialization.loadBackpack(id.toString(), data);
+            return backpack == null ? -1 : backpack.getLastUse();
+        } catch (IOException | InvalidConfigurationException | RuntimeException e) {
+            Log.d(e);
+            return -1;
+        }
+    }
+}
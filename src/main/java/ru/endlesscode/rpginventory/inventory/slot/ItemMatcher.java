@@ -0,0 +1,117 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ru.endlesscode.rpginventory.inventory.slot;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import ru.endlesscode.rpginventory.utils.ItemUtils;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiled list of item patterns in format {@code MATERIAL[:data[-data]]} or {@code ALL}.
+ * <p>
+ * Patterns are parsed once, so matching costs a lookup by material and,
+ * only for materials with data ranges, reading of item texture data.
+ */
+final class ItemMatcher {
+
+    private static final String ALL = "ALL";
+
+    private final boolean matchesAll;
+    // Materials matched regardless of texture data
+    private final Set<Material> materials = EnumSet.noneOf(Material.class);
+    // Ranges of texture data in format [min, max]
+    private final Map<Material, List<int[]>> ranges = new EnumMap<>(Material.class);
+
+    private ItemMatcher(@NotNull List<String> patterns) {
+        boolean matchesAll = false;
+        for (String pattern : patterns) {
+            if (pattern.equals(ALL)) {
+                matchesAll = true;
+                continue;
+            }
+
+            String[] data = pattern.split(":");
+            Material material = Material.getMaterial(data[0].toUpperCase(Locale.ENGLISH));
+            if (material == null) {
+                continue;
+            }
+
+            if (data.length == 1) {
+                this.materials.add(material);
+                continue;
+            }
+
+            try {
+                String[] borders = data[1].split("-");
+                int min = Integer.parseInt(borders[0]);
+                int max = borders.length > 1 ? Integer.parseInt(borders[1]) : min;
+                this.ranges.computeIfAbsent(material, key -> new ArrayList<>())
+                        .add(new int[]{Math.min(min, max), Math.max(min, max)});
+            } catch (NumberFormatException e) {
+                // Slots with invalid patterns are rejected by SlotManager
+            }
+        }
+        this.matchesAll = matchesAll;
+    }
+
+    @NotNull
+    static ItemMatcher compile(@NotNull List<String> patterns) {
+        return new ItemMatcher(patterns);
+    }
+
+    boolean matches(@NotNull ItemStack item) {
+        if (this.matchesAll) {
+            return true;
+        }
+
+        Material material = item.getType();
+        if (this.materials.contains(material)) {
+            return true;
+        }
+
+        List<int[]> materialRanges = this.ranges.get(material);
+        if (materialRanges == null) {
+            return false;
+        }
+
+        // Data is ignored if item has no texture data
+        int itemData = ItemUtils.getTextureData(item);
+        if (itemData < 0) {
+            return true;
+        }
+
+        for (int[] range : materialRanges) {
+            if (itemData >= range[0] && itemData <= range[1]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -54,6 +54,10 @@ public class Slot {
 
     private final List<String> allowed = new ArrayList<>();
     private final List<String> denied = new ArrayList<>();
+    @NotNull
+    private final ItemMatcher allowedMatcher;
+    @NotNull
+    private final ItemMatcher deniedMatcher;
 
     @NotNull
     private final List<Integer> slotIds;
@@ -102,6 +106,8 @@ public class Slot {
                 this.allowed.add("ELYTRA");
             }
         }
+        this.allowedMatcher = ItemMatcher.compile(this.allowed);
+        this.deniedMatcher = ItemMatcher.compile(this.denied);
 
         // Setup cup slot
         Texture texture = Texture.parseTexture(config.getString("holder.item"));
@@ -115,46 +121,6 @@ public class Slot {
         this.cup = cup;
     }
 
-    private static boolean searchItem(List<String> materialList, @NotNull ItemStack itemStack) {
-        Integer itemData = ItemUtils.getTextureData(itemStack);
-
-        for (String material : materialList) {
-            String[] data = material.split(":");
-
-            if (material.equals("ALL")) {
-                return true;
-            }
-
-            if (!itemStack.getType().name().equalsIgnoreCase(data[0])) {
-                continue;
-            }
-
-            if (itemData >= 0 && data.length > 1) {
-                String[] borders = data[1].split("-");
-
-                if (borders.length == 1 && itemData != Integer.parseInt(data[1])) {
-                    continue;
-                } else if (borders.length == 2) {
-                    int min = Integer.parseInt(borders[0]);
-                    int max = Integer.parseInt(borders[1]);
-
-                    if (min > max) {
-                        int temp = max;
-                        max = min;
-                        min = temp;
-                    }
-
-                    if (itemData < min || itemData > max) {
-                        continue;
-                    }
-                }
-            }
-            return true;
-        }
-
-        return false;
-    }
-
     @NotNull
     public ItemStack getCup() {
         return this.cup.clone();
@@ -203,11 +169,11 @@ public class Slot {
     }
 
     private boolean isDenied(@NotNull ItemStack item) {
-        return searchItem(this.denied, item);
+        return this.deniedMatcher.matches(item);
     }
 
     private boolean isAllowed(@NotNull ItemStack item) {
-        return searchItem(this.allowed, item);
+        return this.allowedMatcher.matches(item);
     }
 
     @NotNull
@@ -18,13 +18,16 @@
 
 package ru.endlesscode.rpginventory.inventory.slot;
 
+import org.bukkit.Material;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.ItemStack;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import ru.endlesscode.rpginventory.RPGInventory;
+import ru.endlesscode.rpginventory.utils.ItemUtils;
 import ru.endlesscode.rpginventory.utils.Log;
 import ru.endlesscode.rpginventory.utils.SafeEnums;
 
@@ -32,8 +35,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * Created by OsipXD on 05.09.2015
@@ -44,10 +56,31 @@ public class SlotManager {
 
     private static final String CONFIG_NAME = "slots.yml";
 
+    private static final int INVENTORY_SIZE = 54;
+    private static final int QUICKBAR_SIZE = 9;
+
     @Nullable
     private static SlotManager slotManager = null;
 
     private final List<Slot> slots = new ArrayList<>();
+    private final List<Slot> slotsView = Collections.unmodifiableList(this.slots);
+
+    // Indexes for fast lookup
+    private final Slot[] slotsById = new Slot[INVENTORY_SIZE];
+    private final Slot[] slotsByQuickbarId = new Slot[QUICKBAR_SIZE];
+    private final Slot[] quickSlotsByQuickbarId = new Slot[QUICKBAR_SIZE];
+    private final Map<String, Slot> slotsByName = new HashMap<>();
+    private final Map<Slot.SlotType, Slot> slotsByType = new EnumMap<>(Slot.SlotType.class);
+    private final Map<ItemStack, Slot> slotsByCup = new HashMap<>();
+    private final Set<ItemStack> quickCups = new HashSet<>();
+    private final Set<Material> cupMaterials = EnumSet.noneOf(Material.class);
+    private final Set<Material> quickCupMaterials = EnumSet.noneOf(Material.class);
+
+    private final List<Slot> quickSlots;
+    private final List<Slot> passiveSlots;
+    private final List<Slot> activeSlots;
+    private final List<Slot> armorSlots;
+    private final List<Slot> infoSlots;
 
     @NotNull
     private final Path slotsFile;
@@ -62,6 +95,20 @@ public class SlotManager {
 
         this.slotsConfig = YamlConfiguration.loadConfiguration(slotsFile.toFile());
 
+        this.loadSlots();
+        this.buildIndexes();
+
+        this.quickSlots = this.filterSlots(Slot::isQuick);
+        this.passiveSlots = this.filterSlots(slot -> {
+            final Slot.SlotType type = slot.getSlotType();
+            return type == Slot.SlotType.PASSIVE || type == Slot.SlotType.BACKPACK || type == Slot.SlotType.ELYTRA;
+        });
+        this.activeSlots = this.filterSlots(slot -> slot.getSlotType() == Slot.SlotType.ACTIVE);
+        this.armorSlots = this.filterSlots(slot -> slot.getSlotType() == Slot.SlotType.ARMOR);
+        this.infoSlots = this.filterSlots(slot -> slot.getSlotType() == Slot.SlotType.INFO);
+    }
+
+    private void loadSlots() {
         @Nullable final ConfigurationSection slots = this.slotsConfig.getConfigurationSection("slots");
         if (slots == null) {
             Log.s("Section ''slots'' not found in {0}", CONFIG_NAME);
@@ -164,138 +211,140 @@ public class SlotManager {
 
     @Nullable
     public Slot getSlot(String name) {
-        for (Slot slot : this.slots) {
-            if (slot.getName().equalsIgnoreCase(name)) {
-                return slot;
-            }
-        }
-
-        return null;
+        return name == null ? null : this.slotsByName.get(name.toLowerCase(Locale.ENGLISH));
     }
 
     @Nullable
     public Slot getSlot(int slotId, InventoryType.SlotType slotType) {
-        for (Slot slot : this.slots) {
-            if (slotType == InventoryType.SlotType.QUICKBAR) {
-                if ((slot.isQuick() || slot.getSlotType() == Slot.SlotType.SHIELD) && slot.getQuickSlot() == slotId) {
-                    return slot;
-                }
-            } else if (slot.containsSlot(slotId)) {
-                return slot;
-            }
-        }
+        Slot[] index = slotType == InventoryType.SlotType.QUICKBAR ? this.slotsByQuickbarId : this.slotsById;
+        return slotId >= 0 && slotId < index.length ? index[slotId] : null;
+    }
 
-        return null;
+    /**
+     * Unlike {@link #getSlot(int, InventoryType.SlotType)} doesn't return shield slot.
+     */
+    @Nullable
+    public Slot getQuickSlot(int quickSlot) {
+        return quickSlot >= 0 && quickSlot < this.quickSlotsByQuickbarId.length ? this.quickSlotsByQuickbarId[quickSlot] : null;
     }
 
     @NotNull
     public List<Slot> getQuickSlots() {
-        List<Slot> quickSlots = new ArrayList<>();
-        for (Slot slot : this.slots) {
-            if (slot.isQuick()) {
-                quickSlots.add(slot);
-            }
-        }
-
-        return quickSlots;
+        return this.quickSlots;
     }
 
     @NotNull
     public List<Slot> getPassiveSlots() {
-        List<Slot> passiveSlots = new ArrayList<>();
-        for (Slot slot : this.slots) {
-            final Slot.SlotType type = slot.getSlotType();
-            if (type == Slot.SlotType.PASSIVE || type == Slot.SlotType.BACKPACK || type == Slot.SlotType.ELYTRA) {
-                passiveSlots.add(slot);
-            }
-        }
-
-        return passiveSlots;
+        return this.passiveSlots;
     }
 
     @NotNull
     public List<Slot> getActiveSlots() {
-        List<Slot> activeSlots = new ArrayList<>();
-        for (Slot slot : this.slots) {
-            if (slot.getSlotType() == Slot.SlotType.ACTIVE) {
-                activeSlots.add(slot);
-            }
-        }
-
-        return activeSlots;
+        return this.activeSlots;
     }
 
     @NotNull
     public List<Slot> getArmorSlots() {
-        List<Slot> armorSlots = new ArrayList<>(4);
-        for (Slot slot : this.slots) {
-            if (slot.getSlotType() == Slot.SlotType.ARMOR) {
-                armorSlots.add(slot);
-            }
-        }
-
-        return armorSlots;
+        return this.armorSlots;
     }
 
     @NotNull
     public List<Slot> getInfoSlots() {
-        List<Slot> infoSlots = new ArrayList<>();
-        for (Slot slot : this.slots) {
-            if (slot.getSlotType() == Slot.SlotType.INFO) {
-                infoSlots.add(slot);
-            }
-        }
-
-        return infoSlots;
+        return this.infoSlots;
     }
 
     @NotNull
     public List<Slot> getSlots() {
-        return this.slots;
+        return this.slotsView;
     }
 
     @Nullable
     public Slot getPetSlot() {
-        for (Slot slot : this.slots) {
-            if (slot.getSlotType() == Slot.SlotType.PET) {
-                return slot;
-            }
-        }
-
-        return null;
+        return this.slotsByType.get(Slot.SlotType.PET);
     }
 
     @Nullable
     public Slot getShieldSlot() {
-        for (Slot slot : this.slots) {
-            if (slot.getSlotType() == Slot.SlotType.SHIELD) {
-                return slot;
-            }
-        }
-
-        return null;
+        return this.slotsByType.get(Slot.SlotType.SHIELD);
     }
 
     @Nullable
     public Slot getBackpackSlot() {
+        return this.slotsByType.get(Slot.SlotType.BACKPACK);
+    }
+
+    @Nullable
+    public Slot getElytraSlot() {
+        return this.slotsByType.get(Slot.SlotType.ELYTRA);
+    }
+
+    /**
+     * Returns slot which cup is equal to the given item.
+     * If several slots have the same cup, the first of them is returned.
+     */
+    @Nullable
+    public Slot getSlotByCup(@Nullable ItemStack item) {
+        if (ItemUtils.isEmpty(item) || !this.cupMaterials.contains(item.getType())) {
+            return null;
+        }
+
+        return this.slotsByCup.get(item);
+    }
+
+    public boolean isQuickCup(@Nullable ItemStack item) {
+        if (ItemUtils.isEmpty(item) || !this.quickCupMaterials.contains(item.getType())) {
+            return false;
+        }
+
+        return this.quickCups.contains(item);
+    }
+
+    /**
+     * Indexes are built once, because slots are never changed after loading.
+     */
+    private void buildIndexes() {
         for (Slot slot : this.slots) {
-            if (slot.getSlotType() == Slot.SlotType.BACKPACK) {
-                return slot;
+            this.slotsByName.putIfAbsent(slot.getName().toLowerCase(Locale.ENGLISH), slot);
+            this.slotsByType.putIfAbsent(slot.getSlotType(), slot);
+
+            for (int slotId : slot.getSlotIds()) {
+                if (this.slotsById[slotId] == null) {
+                    this.slotsById[slotId] = slot;
+                }
+            }
+
+            int quickSlot = slot.getQuickSlot();
+            if (quickSlot >= 0 && quickSlot < QUICKBAR_SIZE) {
+                if ((slot.isQuick() || slot.getSlotType() == Slot.SlotType.SHIELD) && this.slotsByQuickbarId[quickSlot] == null) {
+                    this.slotsByQuickbarId[quickSlot] = slot;
+                }
+                if (slot.isQuick() && this.quickSlotsByQuickbarId[quickSlot] == null) {
+                    this.quickSlotsByQuickbarId[quickSlot] = slot;
+                }
             }
-        }
 
-        return null;
+            ItemStack cup = slot.getCup();
+            if (ItemUtils.isNotEmpty(cup)) {
+                this.cupMaterials.add(cup.getType());
+                this.slotsByCup.putIfAbsent(cup, slot);
+                if (slot.isQuick()) {
+                    this.quickCupMaterials.add(cup.getType());
+                    this.quickCups.add(cup);
+                }
+            }
+        }
     }
 
-    @Nullable
-    public Slot getElytraSlot() {
+    @NotNull
+    private List<Slot> filterSlots(@NotNull Predicate<Slot> predicate) {
+        List<Slot> filtered = new ArrayList<>();
         for (Slot slot : this.slots) {
-            if (slot.getSlotType() == Slot.SlotType.ELYTRA) {
-                return slot;
+            if (predicate.test(slot)) {
+                filtered.add(slot);
             }
         }
 
-        return null;
+        return Collections.unmodifiableList(filtered);
     }
 
     public void saveDefaults() {
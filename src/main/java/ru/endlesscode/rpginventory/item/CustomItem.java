@@ -31,6 +31,7 @@ import ru.endlesscode.rpginventory.utils.SafeEnums;
 import ru.endlesscode.rpginventory.utils.StringUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -110,6 +111,11 @@ public class CustomItem extends ClassedItem {
         InventoryManager.get(player).addPermissions(this.permissions);
     }
 
+    @NotNull
+    public List<String> getPermissions() {
+        return this.permissions == null ? Collections.emptyList() : this.permissions;
+    }
+
     public void onRightClick(Player player) {
         if (rightClickAction != null) {
             rightClickAction.doAction(player);
@@ -29,6 +29,7 @@ import org.jetbrains.annotations.Nullable;
 import ru.endlesscode.rpginventory.RPGInventory;
 import ru.endlesscode.rpginventory.event.listener.ItemListener;
 import ru.endlesscode.rpginventory.inventory.InventoryManager;
+import ru.endlesscode.rpginventory.inventory.PlayerWrapper;
 import ru.endlesscode.rpginventory.misc.FileLanguage;
 import ru.endlesscode.rpginventory.misc.config.Config;
 import ru.endlesscode.rpginventory.pet.PetManager;
@@ -116,6 +117,10 @@ public class ItemManager {
     }
 
     public static Modifier getModifier(Player player, ItemStat.StatType statType) {
+        if (InventoryManager.playerIsLoaded(player)) {
+            return InventoryManager.get(player).getStatsCache().get(player, statType);
+        }
+
         return getModifier(player, statType, false);
     }
 
@@ -213,7 +218,9 @@ public class ItemManager {
             return;
         }
 
-        InventoryManager.get(player).updateStatsLater();
+        PlayerWrapper playerWrapper = InventoryManager.get(player);
+        playerWrapper.getStatsCache().invalidate();
+        playerWrapper.updateStatsLater();
     }
 
     @NotNull
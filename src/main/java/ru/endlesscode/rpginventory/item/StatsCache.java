@@ -0,0 +1,114 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.item;
+
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import ru.endlesscode.rpginventory.RPGInventory;
+import ru.endlesscode.rpginventory.utils.InventoryUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Aggregated item stats of a player.
+ * Stats are summed once per equipment change and then read by stat type,
+ * instead of collecting effective items on every combat or move event.
+ * <p>
+ * Items are filtered by player level and classes, that can be changed by other plugins without any event,
+ * so stats are also rebuilt when they differ from ones the cache was built with.
+ */
+public class StatsCache {
+
+    private static final ItemStat.StatType[] STAT_TYPES = ItemStat.StatType.values();
+
+    private final double[] minBonus = new double[STAT_TYPES.length];
+    private final double[] maxBonus = new double[STAT_TYPES.length];
+    private final double[] minMultiplier = new double[STAT_TYPES.length];
+    private final double[] maxMultiplier = new double[STAT_TYPES.length];
+    private final Modifier[] modifiers = new Modifier[STAT_TYPES.length];
+
+    private boolean dirty = true;
+    private int level = -1;
+    @NotNull
+    private List<String> classes = Collections.emptyList();
+
+    /**
+     * Marks cached stats as outdated. They will be rebuilt on the next lookup.
+     */
+    public void invalidate() {
+        this.dirty = true;
+    }
+
+    @NotNull
+    Modifier get(@NotNull Player player, @NotNull ItemStat.StatType statType) {
+        int level = RPGInventory.getLevelSystem(player).getLevel();
+        List<String> classes = RPGInventory.getClassSystem(player).getClasses();
+        if (this.dirty || level != this.level || !classes.equals(this.classes)) {
+            this.rebuild(player);
+            this.level = level;
+            this.classes = new ArrayList<>(classes);
+        }
+
+        return this.modifiers[statType.ordinal()];
+    }
+
+    private void rebuild(@NotNull Player player) {
+        Arrays.fill(this.minBonus, 0);
+        Arrays.fill(this.maxBonus, 0);
+        Arrays.fill(this.minMultiplier, 1);
+        Arrays.fill(this.maxMultiplier, 1);
+
+        for (ItemStack item : InventoryUtils.collectEffectiveItems(player, false)) {
+            CustomItem customItem;
+            if (!CustomItem.isCustomItem(item) || (customItem = ItemManager.getCustomItem(item)) == null) {
+                continue;
+            }
+
+            for (ItemStat.StatType statType : STAT_TYPES) {
+                ItemStat stat = customItem.getStat(statType);
+                if (stat != null) {
+                    this.add(statType.ordinal(), stat);
+                }
+            }
+        }
+
+        for (int i = 0; i < STAT_TYPES.length; i++) {
+            this.modifiers[i] = new Modifier(
+                    this.minBonus[i], this.maxBonus[i], this.minMultiplier[i], this.maxMultiplier[i]
+            );
+        }
+
+        this.dirty = false;
+    }
+
+    private void add(int index, @NotNull ItemStat stat) {
+        int sign = stat.getOperationType() == ItemStat.OperationType.MINUS ? -1 : 1;
+        if (stat.isPercentage()) {
+            this.minMultiplier[index] += sign * stat.getMinValue() / 100;
+            this.maxMultiplier[index] += sign * stat.getMaxValue() / 100;
+        } else {
+            this.minBonus[index] += sign * stat.getMinValue();
+            this.maxBonus[index] += sign * stat.getMaxValue();
+        }
+    }
+}
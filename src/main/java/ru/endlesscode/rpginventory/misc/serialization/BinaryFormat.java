@@ -0,0 +1,85 @@
+package ru.endlesscode.rpginventory.misc.serialization;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Primitives of the binary records format.
+ * <p>
+ * Record is GZIP-compressed stream that starts with {@link #MAGIC} and version byte.
+ */
+final class BinaryFormat {
+
+    static final byte[] MAGIC = {'R', 'P', 'G', 'I'};
+    static final int VERSION = 2;
+
+    private static final int GZIP_MAGIC_FIRST = 0x1f;
+    private static final int GZIP_MAGIC_SECOND = 0x8b;
+
+    private BinaryFormat() {
+    }
+
+    /**
+     * Checks that data is compressed record. Records saved to database by older versions
+     * are Base64-encoded text, so they never start with GZIP magic bytes.
+     */
+    static boolean isCompressed(@NotNull byte[] data) {
+        return data.length >= 2
+                && (data[0] & 0xFF) == GZIP_MAGIC_FIRST
+                && (data[1] & 0xFF) == GZIP_MAGIC_SECOND;
+    }
+
+    static void writeHeader(@NotNull DataOutput out) throws IOException {
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    /**
+     * Reads header if the stream starts with it, otherwise resets the stream to initial position.
+     *
+     * @param in stream that supports mark
+     * @return version of the format, or 0 if the stream has no header
+     */
+    static int readHeader(@NotNull InputStream in) throws IOException {
+        in.mark(MAGIC.length + 1);
+        for (byte expected : MAGIC) {
+            if (in.read() != (expected & 0xFF)) {
+                in.reset();
+                return 0;
+            }
+        }
+
+        int version = in.read();
+        if (version == -1) {
+            in.reset();
+            return 0;
+        }
+
+        return version;
+    }
+
+    static void writeVarInt(@NotNull DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(@NotNull DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("VarInt is too long");
+    }
+}
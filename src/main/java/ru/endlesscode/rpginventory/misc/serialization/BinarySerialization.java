@@ -0,0 +1,252 @@
+package ru.endlesscode.rpginventory.misc.serialization;
+
+import com.comphenix.protocol.wrappers.nbt.NbtCompound;
+import com.comphenix.protocol.wrappers.nbt.io.NbtBinarySerializer;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.rpginventory.inventory.backpack.Backpack;
+import ru.endlesscode.rpginventory.utils.ItemUtils;
+import ru.endlesscode.rpginventory.utils.Log;
+import ru.endlesscode.rpginventory.utils.NbtFactoryMirror;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ru.endlesscode.rpginventory.misc.serialization.BinaryFormat.readVarInt;
+import static ru.endlesscode.rpginventory.misc.serialization.BinaryFormat.writeVarInt;
+
+/**
+ * Compact binary serialization of inventories and backpacks.
+ * <p>
+ * Records are written using the same fields as their {@code serialize()} maps,
+ * items are stored as namespaced ID, amount and raw NBT of the item tag.
+ * Header contains data version of the server, so items saved on older Minecraft version
+ * are upgraded on loading.
+ */
+class BinarySerialization {
+
+    private static final int KIND_INVENTORY = 1;
+    private static final int KIND_BACKPACK = 2;
+
+    // Keys of serialized maps
+    private static final String INV_SLOTS = "slots";
+    private static final String INV_BOUGHT_SLOTS = "bought-slots";
+    private static final String SLOT_TYPE = "type";
+    private static final String SLOT_BOUGHT = "bought";
+    private static final String SLOT_ITEMS = "items";
+    private static final String BP_ID = "id";
+    private static final String BP_TYPE = "type";
+    private static final String BP_CONTENTS = "contents";
+    private static final String BP_LAST_USE = "last-use";
+
+    private BinarySerialization() {
+    }
+
+    static void write(@NotNull DataOutputStream out, @NotNull Object data) throws IOException {
+        BinaryFormat.writeHeader(out);
+        writeVarInt(out, getDataVersion());
+        if (data instanceof InventorySnapshot) {
+            out.writeByte(KIND_INVENTORY);
+            writeInventory(out, (InventorySnapshot) data);
+        } else if (data instanceof Backpack) {
+            out.writeByte(KIND_BACKPACK);
+            writeBackpack(out, (Backpack) data);
+        } else {
+            throw new IllegalArgumentException("Unsupported type of data: " + data.getClass().getName());
+        }
+    }
+
+    /**
+     * Reads the record. Header should be already read.
+     */
+    @NotNull
+    static Object read(@NotNull DataInputStream in) throws IOException {
+        ItemReader itemReader = new ItemReader(readVarInt(in), getDataVersion());
+        int kind = in.readUnsignedByte();
+        switch (kind) {
+            case KIND_INVENTORY:
+                return readInventory(in, itemReader);
+            case KIND_BACKPACK:
+                return readBackpack(in, itemReader);
+            default:
+                throw new IOException("Unknown kind of record: " + kind);
+        }
+    }
+
+    /**
+     * Reads only the last use time of the backpack, without its contents. Header should be already read.
+     */
+    static long readBackpackLastUse(@NotNull DataInputStream in) throws IOException {
+        readVarInt(in); // Data version
+
+        int kind = in.readUnsignedByte();
+        if (kind != KIND_BACKPACK) {
+            throw new IOException("Record is not a backpack: " + kind);
+        }
+
+        in.readUTF(); // ID
+        in.readUTF(); // Type
+        return in.readLong();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeInventory(@NotNull DataOutputStream out, @NotNull InventorySnapshot snapshot) throws IOException {
+        Map<String, Object> serialized = snapshot.serialize();
+        Map<String, SlotSnapshot> slots = (Map<String, SlotSnapshot>) serialized.get(INV_SLOTS);
+
+        writeVarInt(out, (Integer) serialized.get(INV_BOUGHT_SLOTS));
+        writeVarInt(out, slots.size());
+        for (Map.Entry<String, SlotSnapshot> slot : slots.entrySet()) {
+            Map<String, Object> serializedSlot = slot.getValue().serialize();
+            out.writeUTF(slot.getKey());
+            out.writeUTF((String) serializedSlot.get(SLOT_TYPE));
+            out.writeBoolean(serializedSlot.containsKey(SLOT_BOUGHT));
+            writeItems(out, (List<ItemStack>) serializedSlot.get(SLOT_ITEMS));
+        }
+    }
+
+    @NotNull
+    private static InventorySnapshot readInventory(@NotNull DataInputStream in, @NotNull ItemReader itemReader)
+            throws IOException {
+        int boughtSlots = readVarInt(in);
+        int slotsCount = readVarInt(in);
+        Map<String, SlotSnapshot> slots = new LinkedHashMap<>();
+        for (int i = 0; i < slotsCount; i++) {
+            String name = in.readUTF();
+            Map<String, Object> serializedSlot = new LinkedHashMap<>();
+            serializedSlot.put(SLOT_TYPE, in.readUTF());
+            if (in.readBoolean()) {
+                serializedSlot.put(SLOT_BOUGHT, true);
+            }
+            serializedSlot.put(SLOT_ITEMS, readItems(in, itemReader));
+            slots.put(name, SlotSnapshot.deserialize(serializedSlot));
+        }
+
+        Map<String, Object> serialized = new LinkedHashMap<>();
+        serialized.put(INV_BOUGHT_SLOTS, boughtSlots);
+        serialized.put(INV_SLOTS, slots);
+        return InventorySnapshot.deserialize(serialized);
+    }
+
+    private static void writeBackpack(@NotNull DataOutputStream out, @NotNull Backpack backpack) throws IOException {
+        Map<String, Object> serialized = backpack.serialize();
+        out.writeUTF((String) serialized.get(BP_ID));
+        out.writeUTF((String) serialized.get(BP_TYPE));
+        out.writeLong((Long) serialized.get(BP_LAST_USE));
+        writeItems(out, Arrays.asList((ItemStack[]) serialized.get(BP_CONTENTS)));
+    }
+
+    @NotNull
+    private static Backpack readBackpack(@NotNull DataInputStream in, @NotNull ItemReader itemReader) throws IOException {
+        Map<String, Object> serialized = new LinkedHashMap<>();
+        serialized.put(BP_ID, in.readUTF());
+        serialized.put(BP_TYPE, in.readUTF());
+        serialized.put(BP_LAST_USE, in.readLong());
+        serialized.put(BP_CONTENTS, readItems(in, itemReader));
+        return Backpack.deserialize(serialized);
+    }
+
+    private static void writeItems(@NotNull DataOutputStream out, @NotNull List<ItemStack> items) throws IOException {
+        writeVarInt(out, items.size());
+        for (ItemStack item : items) {
+            writeItem(out, item);
+        }
+    }
+
+    @NotNull
+    private static List<ItemStack> readItems(@NotNull DataInputStream in, @NotNull ItemReader itemReader)
+            throws IOException {
+        int size = readVarInt(in);
+        List<ItemStack> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(itemReader.read(in));
+        }
+
+        return items;
+    }
+
+    private static void writeItem(@NotNull DataOutputStream out, @Nullable ItemStack item) throws IOException {
+        if (ItemUtils.isEmpty(item)) {
+            out.writeBoolean(false);
+            return;
+        }
+
+        out.writeBoolean(true);
+        out.writeUTF(item.getType().getKey().toString());
+        writeVarInt(out, item.getAmount());
+
+        NbtCompound tag = null;
+        if (item.hasItemMeta()) {
+            // Items are copies made for serialization, so we can modify them
+            ItemStack craftItem = ItemUtils.toBukkitItemStack(item);
+            tag = ItemUtils.isEmpty(craftItem) ? null : NbtFactoryMirror.fromItemCompound(craftItem);
+        }
+
+        out.writeBoolean(tag != null);
+        if (tag != null) {
+            NbtBinarySerializer.DEFAULT.serialize(tag, out);
+        }
+    }
+
+    private static int getDataVersion() {
+        return Bukkit.getUnsafe().getDataVersion();
+    }
+
+    /**
+     * Reads items of the record, upgrading them if the record was saved on older Minecraft version.
+     */
+    private static final class ItemReader {
+        private final int dataVersion;
+        private final int currentDataVersion;
+
+        private ItemReader(int dataVersion, int currentDataVersion) {
+            this.dataVersion = dataVersion;
+            this.currentDataVersion = currentDataVersion;
+        }
+
+        /**
+         * @throws IOException if the item is unknown, so the record isn't overwritten without it
+         */
+        @Nullable
+        private ItemStack read(@NotNull DataInputStream in) throws IOException {
+            if (!in.readBoolean()) {
+                return null;
+            }
+
+            String id = in.readUTF();
+            int amount = readVarInt(in);
+            NbtCompound tag = in.readBoolean() ? NbtBinarySerializer.DEFAULT.deserializeCompound(in) : null;
+
+            ItemUpgrader.Item stored = new ItemUpgrader.Item(id, amount, tag);
+            ItemUpgrader.Item upgraded = ItemUpgrader.upgrade(stored, dataVersion, currentDataVersion);
+            Material material = Material.matchMaterial(upgraded.getId());
+            if (material == null) {
+                Log.w("Unknown item {0} (saved as {1} with data version {2})",
+                        upgraded.getId(), id, String.valueOf(dataVersion));
+                throw new IOException("Unknown item: " + upgraded.getId());
+            } else if (material == Material.AIR) {
+                return null;
+            }
+            tag = upgraded.getTag();
+
+            ItemStack item = new ItemStack(material, amount);
+            if (tag != null) {
+                item = ItemUtils.toBukkitItemStack(item);
+                if (ItemUtils.isNotEmpty(item)) {
+                    NbtFactoryMirror.setItemTag(item, tag);
+                }
+            }
+
+            return item;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package ru.endlesscode.rpginventory.misc.serialization;
+
+import com.comphenix.protocol.wrappers.nbt.NbtCompound;
+import com.comphenix.protocol.wrappers.nbt.NbtFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.rpginventory.compat.NmsHandles;
+import ru.endlesscode.rpginventory.utils.Log;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * Upgrades items saved on older version of Minecraft with the data fixer of the server,
+ * like the server does for items stored in worlds.
+ * <p>
+ * Method handles are resolved on the first upgrade. If it isn't possible on the current server version,
+ * items are loaded as is.
+ */
+final class ItemUpgrader {
+
+    private static final String KEY_ID = "id";
+    private static final String KEY_COUNT = "Count";
+    private static final String KEY_TAG = "tag";
+
+    @Nullable
+    private static final Object DATA_FIXER;
+    @Nullable
+    private static final Object ITEM_STACK_TYPE;
+    @Nullable
+    private static final Object NBT_OPS;
+    @Nullable
+    private static final MethodHandle NEW_DYNAMIC;
+    @Nullable
+    private static final MethodHandle UPDATE;
+    @Nullable
+    private static final MethodHandle GET_VALUE;
+
+    static {
+        Class<?> dynamic = NmsHandles.findClass("com.mojang.serialization.Dynamic");
+        Class<?> dynamicOps = NmsHandles.findClass("com.mojang.serialization.DynamicOps");
+        Class<?> dataFixer = NmsHandles.findClass("com.mojang.datafixers.DataFixer");
+        Class<?> typeReference = NmsHandles.findClass("com.mojang.datafixers.DSL$TypeReference");
+
+        MethodHandle getDataFixer = NmsHandles.findMethod(NmsHandles.findMinecraftClass("DataConverterRegistry"), "a");
+        MethodHandle getItemStackType = NmsHandles.findGetter(NmsHandles.findMinecraftClass("DataConverterTypes"), "ITEM_STACK");
+        MethodHandle getNbtOps = NmsHandles.findGetter(NmsHandles.findMinecraftClass("DynamicOpsNBT"), "a");
+        NEW_DYNAMIC = dynamicOps == null ? null : NmsHandles.findConstructor(dynamic, dynamicOps, Object.class);
+        UPDATE = dynamic == null || typeReference == null ? null
+                : NmsHandles.findMethod(dataFixer, "update", typeReference, dynamic, int.class, int.class);
+        GET_VALUE = NmsHandles.findMethod(dynamic, "getValue");
+
+        Object fixer = null;
+        Object itemStackType = null;
+        Object nbtOps = null;
+        if (getDataFixer != null && getItemStackType != null && getNbtOps != null) {
+            try {
+                fixer = getDataFixer.invoke();
+                itemStackType = getItemStackType.invoke();
+                nbtOps = getNbtOps.invoke();
+            } catch (Throwable t) {
+                if (t instanceof Error) {
+                    throw (Error) t;
+                }
+                Log.w("Items saved on older Minecraft version will not be upgraded: {0}", t.toString());
+            }
+        }
+
+        boolean supported = fixer != null && NEW_DYNAMIC != null && UPDATE != null && GET_VALUE != null;
+        DATA_FIXER = supported ? fixer : null;
+        ITEM_STACK_TYPE = itemStackType;
+        NBT_OPS = nbtOps;
+    }
+
+    private ItemUpgrader() {
+    }
+
+    /**
+     * Upgrades the item from the given data version to the current version.
+     *
+     * @return upgraded item, or the same item if it can't be upgraded
+     */
+    @NotNull
+    static Item upgrade(@NotNull Item item, int fromVersion, int toVersion) {
+        // Checked first, so data fixer isn't looked up while items are up to date
+        if (fromVersion >= toVersion || DATA_FIXER == null) {
+            return item;
+        }
+
+        NbtCompound compound = NbtFactory.ofCompound("");
+        compound.put(KEY_ID, item.getId());
+        compound.put(KEY_COUNT, (byte) Math.min(item.getAmount(), Byte.MAX_VALUE));
+        if (item.getTag() != null) {
+            compound.put(KEY_TAG, item.getTag());
+        }
+
+        try {
+            Object input = NEW_DYNAMIC.invoke(NBT_OPS, compound.getHandle());
+            Object output = GET_VALUE.invoke(UPDATE.invoke(DATA_FIXER, ITEM_STACK_TYPE, input, fromVersion, toVersion));
+            NbtCompound upgraded = NbtFactory.fromNMSCompound(output);
+            NbtCompound tag = upgraded.containsKey(KEY_TAG) ? upgraded.getCompound(KEY_TAG) : null;
+            return new Item(upgraded.getString(KEY_ID), item.getAmount(), tag);
+        } catch (Throwable t) {
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            Log.w("Item {0} can''t be upgraded from data version {1}: {2}",
+                    item.getId(), String.valueOf(fromVersion), t.toString());
+            return item;
+        }
+    }
+
+    /**
+     * Item as it is stored in records: namespaced ID, amount and tag.
+     */
+    static final class Item {
+        @NotNull
+        private final String id;
+        private final int amount;
+        @Nullable
+        private final NbtCompound tag;
+
+        Item(@NotNull String id, int amount, @Nullable NbtCompound tag) {
+            this.id = id;
+            this.amount = amount;
+            this.tag = tag;
+        }
+
+        @NotNull
+        String getId() {
+            return id;
+        }
+
+        int getAmount() {
+            return amount;
+        }
+
+        @Nullable
+        NbtCompound getTag() {
+            return tag;
+        }
+    }
+}
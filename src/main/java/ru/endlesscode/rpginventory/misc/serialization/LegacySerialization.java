@@ -15,15 +15,12 @@ import ru.endlesscode.rpginventory.inventory.backpack.BackpackManager;
 import ru.endlesscode.rpginventory.inventory.backpack.BackpackType;
 import ru.endlesscode.rpginventory.inventory.slot.Slot;
 import ru.endlesscode.rpginventory.inventory.slot.SlotManager;
-import ru.endlesscode.rpginventory.utils.FileUtils;
 import ru.endlesscode.rpginventory.utils.ItemUtils;
 import ru.endlesscode.rpginventory.utils.NbtFactoryMirror;
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.*;
 import java.util.zip.GZIPInputStream;
 
@@ -77,47 +74,48 @@ class LegacySerialization {
         return playerWrapper;
     }
 
+    /**
+     * Loads inventory as snapshot, so it can be converted without player.
+     */
     @NotNull
-    static PlayerWrapper loadPlayer(Player player, @NotNull Path file) throws IOException {
-        PlayerWrapper playerWrapper = new PlayerWrapper(player);
-        Inventory inventory = playerWrapper.getInventory();
-
-        try (DataInputStream dataInput = new DataInputStream(new GZIPInputStream(Files.newInputStream(file)))) {
+    static InventorySnapshot loadSnapshot(@NotNull String data) throws IOException {
+        byte[] temp = Base64.getDecoder().decode(data);
+        ByteArrayInputStream swapStream = new ByteArrayInputStream(temp);
+        try (DataInputStream dataInput = new DataInputStream(new GZIPInputStream(swapStream))) {
             NbtCompound playerNbt = NbtBinarySerializer.DEFAULT.deserializeCompound(dataInput);
 
-            playerWrapper.setBuyedSlots(playerNbt.getInteger("buyed-slots"));
+            int boughtSlots = playerNbt.getInteger("buyed-slots");
             playerNbt.remove("buyed-slots");
 
             NbtCompound itemsNbt = playerNbt.containsKey("slots") ? playerNbt.getCompound("slots") : playerNbt;
 
-            for (Slot slot : SlotManager.instance().getSlots()) {
-                if (itemsNbt.containsKey(slot.getName())) {
-                    NbtCompound slotNbt = itemsNbt.getCompound(slot.getName());
-                    if (slot.getSlotType() != Slot.SlotType.valueOf(slotNbt.getString("type"))) {
-                        continue;
-                    }
-
-                    if (slotNbt.containsKey("buyed")) {
-                        playerWrapper.setBuyedSlots(slot.getName());
-                    }
+            Map<String, SlotSnapshot> slots = new LinkedHashMap<>();
+            for (String slotName : itemsNbt.getKeys()) {
+                NbtCompound slotNbt = itemsNbt.getCompound(slotName);
 
-                    NbtCompound itemListNbt = slotNbt.getCompound("items");
-                    List<ItemStack> itemList = new ArrayList<>();
-                    for (String key : itemListNbt.getKeys()) {
-                        itemList.add(nbtToItemStack(itemListNbt.getCompound(key)));
+                List<ItemStack> itemList = new ArrayList<>();
+                NbtCompound itemListNbt = slotNbt.getCompound("items");
+                for (String key : itemListNbt.getKeys()) {
+                    ItemStack item = nbtToItemStack(itemListNbt.getCompound(key));
+                    if (ItemUtils.isNotEmpty(item)) {
+                        itemList.add(item);
                     }
+                }
 
-                    List<Integer> slotIds = slot.getSlotIds();
-                    for (int i = 0; i < slotIds.size(); i++) {
-                        if (itemList.size() > i) {
-                            inventory.setItem(slotIds.get(i), itemList.get(i));
-                        }
-                    }
+                Map<String, Object> serializedSlot = new LinkedHashMap<>();
+                serializedSlot.put("type", slotNbt.getString("type"));
+                if (slotNbt.containsKey("buyed")) {
+                    serializedSlot.put("bought", true);
                 }
+                serializedSlot.put("items", itemList);
+                slots.put(slotName, SlotSnapshot.deserialize(serializedSlot));
             }
-        }
 
-        return playerWrapper;
+            Map<String, Object> serialized = new LinkedHashMap<>();
+            serialized.put("bought-slots", boughtSlots);
+            serialized.put("slots", slots);
+            return InventorySnapshot.deserialize(serialized);
+        }
     }
 
     @Nullable
@@ -134,34 +132,7 @@ class LegacySerialization {
             }
 
             long lastUse = (nbtList.containsKey("last-use")) ? nbtList.getLong("last-use") : System.currentTimeMillis();
-            backpack = new Backpack(type, UUID.fromString(FileUtils.stripExtension(data.getKey())));
-            backpack.setLastUse(lastUse);
-            NbtCompound itemList = nbtList.getCompound("contents");
-            ItemStack[] contents = new ItemStack[type.getSize()];
-            for (int i = 0; i < type.getSize() && itemList.containsKey(i + ""); i++) {
-                NbtCompound compound = itemList.getCompound(i + "");
-                contents[i] = compound == null ? new ItemStack(Material.AIR) : nbtToItemStack(compound);
-            }
-
-            backpack.setContents(contents);
-        }
-
-        return backpack;
-    }
-
-    @Nullable
-    static Backpack loadBackpack(@NotNull Path file) throws IOException {
-        Backpack backpack;
-        try (DataInputStream dataInput = new DataInputStream(new GZIPInputStream(Files.newInputStream(file)))) {
-            NbtCompound nbtList = NbtBinarySerializer.DEFAULT.deserializeCompound(dataInput);
-
-            BackpackType type = BackpackManager.getBackpackType(nbtList.getString("type"));
-            if (type == null) {
-                return null;
-            }
-
-            long lastUse = (nbtList.containsKey("last-use")) ? nbtList.getLong("last-use") : System.currentTimeMillis();
-            backpack = new Backpack(type, UUID.fromString(FileUtils.stripExtension(file.getFileName().toString())));
+            backpack = new Backpack(type, UUID.fromString(data.getKey()));
             backpack.setLastUse(lastUse);
             NbtCompound itemList = nbtList.getCompound("contents");
             ItemStack[] contents = new ItemStack[type.getSize()];
@@ -176,7 +147,6 @@ class LegacySerialization {
         return backpack;
     }
 
-
     @NotNull
     private static ItemStack nbtToItemStack(NbtCompound nbt) {
         ItemStack item = new ItemStack(MaterialCompat.getMaterialOrAir(nbt.getString("material")));
@@ -10,20 +10,21 @@ import org.jetbrains.annotations.Nullable;
 import org.yaml.snakeyaml.reader.ReaderException;
 import ru.endlesscode.rpginventory.inventory.PlayerWrapper;
 import ru.endlesscode.rpginventory.inventory.backpack.Backpack;
-import ru.endlesscode.rpginventory.utils.FileUtils;
 import ru.endlesscode.rpginventory.utils.Log;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
 import java.util.Base64;
-import java.util.Map;
 import java.util.Objects;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+/**
+ * Saves inventories and backpacks in binary format.
+ * Records saved in YAML and legacy NBT formats still can be loaded,
+ * and will be rewritten in the current format on the next save.
+ */
 public class Serialization {
 
     private static final String ROOT_TAG = "data";
@@ -35,7 +36,7 @@ public class Serialization {
     }
 
     @Nullable
-    public static PlayerWrapper loadPlayerOrNull(Player player, @NotNull String data) {
+    public static PlayerWrapper loadPlayerOrNull(Player player, @NotNull byte[] data) {
         PlayerWrapper playerWrapper;
         try {
             playerWrapper = loadPlayer(player, data);
@@ -46,21 +47,8 @@ public class Serialization {
         return playerWrapper;
     }
 
-    @Nullable
-    public static PlayerWrapper loadPlayerOrNull(Player player, @NotNull Path file) {
-        PlayerWrapper playerWrapper;
-        try {
-            playerWrapper = loadPlayer(player, file);
-        } catch (IOException | InvalidConfigurationException e) {
-            Log.w(e);
-            FileUtils.resolveException(file);
-            playerWrapper = null;
-        }
-        return playerWrapper;
-    }
-
     @NotNull
-    private static PlayerWrapper loadPlayer(Player player, @NotNull String data)
+    private static PlayerWrapper loadPlayer(Player player, @NotNull byte[] data)
             throws IOException, InvalidConfigurationException {
         PlayerWrapper playerWrapper;
         try {
@@ -69,7 +57,7 @@ public class Serialization {
         } catch (InvalidConfigurationException e) {
             if (e.getCause() instanceof ReaderException) {
                 Log.w("Can''t load {0}''s inventory. Trying to use legacy loader...", player.getName());
-                playerWrapper = LegacySerialization.loadPlayer(player, data);
+                playerWrapper = LegacySerialization.loadPlayer(player, legacyText(data));
             } else {
                 throw e;
             }
@@ -77,32 +65,24 @@ public class Serialization {
         return playerWrapper;
     }
 
+    /**
+     * Loads inventory snapshot without restoring it.
+     * Unlike player loading, doesn't fall back to legacy format.
+     */
     @NotNull
-    private static PlayerWrapper loadPlayer(Player player, @NotNull Path file)
+    public static InventorySnapshot loadInventorySnapshot(@NotNull byte[] data)
             throws IOException, InvalidConfigurationException {
-        PlayerWrapper playerWrapper;
-        try {
-            InventorySnapshot inventorySnapshot = (InventorySnapshot) load(file);
-            playerWrapper = inventorySnapshot.restore(player);
-        } catch (InvalidConfigurationException e) {
-            if (e.getCause() instanceof ReaderException) {
-                Log.w("Can''t load {0}''s inventory. Trying to use legacy loader...", player.getName());
-                playerWrapper = LegacySerialization.loadPlayer(player, file);
-            } else {
-                throw e;
-            }
-        }
-        return playerWrapper;
+        return (InventorySnapshot) load(data);
     }
 
-    public static Backpack loadBackpack(@NotNull Path file) throws IOException, InvalidConfigurationException {
+    public static Backpack loadBackpack(@NotNull String id, @NotNull byte[] data) throws IOException, InvalidConfigurationException {
         Backpack backpack;
         try {
-            backpack = (Backpack) load(file);
+            backpack = (Backpack) load(data);
         } catch (InvalidConfigurationException e) {
             if (e.getCause() instanceof ReaderException) {
-                Log.w("Can''t load backpack {0}. Trying to use legacy loader...", file.getFileName().toString());
-                backpack = LegacySerialization.loadBackpack(file);
+                Log.w("Can''t load backpack {0}. Trying to use legacy loader...", id);
+                backpack = LegacySerialization.loadBackpack(new AbstractMap.SimpleEntry<>(id, legacyText(data)));
             } else {
                 throw e;
             }
@@ -111,65 +91,131 @@ public class Serialization {
         return backpack;
     }
 
-    public static Backpack loadBackpack(@NotNull Map.Entry<String, String> data) throws IOException, InvalidConfigurationException {
-        Backpack backpack;
+    /**
+     * Converts inventory saved in older format to the current format.
+     *
+     * @return converted data, or null if data already saved in the current format
+     */
+    @Nullable
+    public static byte[] convertInventory(@NotNull byte[] data) throws IOException, InvalidConfigurationException {
+        if (isCurrentFormat(data)) {
+            return null;
+        }
+
+        InventorySnapshot snapshot;
         try {
-            backpack = (Backpack) load(data.getValue());
+            snapshot = (InventorySnapshot) load(data);
         } catch (InvalidConfigurationException e) {
             if (e.getCause() instanceof ReaderException) {
-                Log.w("Can''t load backpack {0}. Trying to use legacy loader...", data.getKey());
-                backpack = LegacySerialization.loadBackpack(data);
+                snapshot = LegacySerialization.loadSnapshot(legacyText(data));
             } else {
                 throw e;
             }
         }
 
-        return backpack;
+        return save(snapshot);
+    }
+
+    /**
+     * Converts backpack saved in older format to the current format.
+     *
+     * @return converted data, or null if data already saved in the current format
+     */
+    @Nullable
+    public static byte[] convertBackpack(@NotNull String id, @NotNull byte[] data)
+            throws IOException, InvalidConfigurationException {
+        if (isCurrentFormat(data)) {
+            return null;
+        }
+
+        Backpack backpack = loadBackpack(id, data);
+        if (backpack == null) {
+            throw new IOException("Backpack type not found");
+        }
+
+        return save(backpack);
     }
 
-    public static String save(@NotNull Object data) throws IOException {
-        final FileConfiguration serializedData = new YamlConfiguration();
-        serializedData.set(ROOT_TAG, data);
+    /**
+     * Reads the last use time of the backpack without loading its contents.
+     *
+     * @return last use time, or null if backpack saved in older format and should be loaded entirely
+     */
+    @Nullable
+    public static Long readBackpackLastUse(@NotNull byte[] data) throws IOException {
+        if (!BinaryFormat.isCompressed(data)) {
+            return null;
+        }
 
-        ByteArrayOutputStream stream1 = new ByteArrayOutputStream();
-        try (OutputStreamWriter stream = new OutputStreamWriter(new GZIPOutputStream(stream1), StandardCharsets.UTF_8)) {
-            stream.write(serializedData.saveToString());
+        try (BufferedInputStream stream = new BufferedInputStream(new GZIPInputStream(new ByteArrayInputStream(data)))) {
+            int version = BinaryFormat.readHeader(stream);
+            if (version != BinaryFormat.VERSION) {
+                return null;
+            }
+            return BinarySerialization.readBackpackLastUse(new DataInputStream(stream));
         }
-        return Base64.getEncoder().encodeToString(stream1.toByteArray());
     }
 
-    public static void save(@NotNull Object data, @NotNull Path file) throws IOException {
-        final FileConfiguration serializedData = new YamlConfiguration();
-        serializedData.set(ROOT_TAG, data);
+    private static boolean isCurrentFormat(@NotNull byte[] data) throws IOException {
+        if (!BinaryFormat.isCompressed(data)) {
+            return false;
+        }
+
+        try (BufferedInputStream stream = new BufferedInputStream(new GZIPInputStream(new ByteArrayInputStream(data)))) {
+            return BinaryFormat.readHeader(stream) == BinaryFormat.VERSION;
+        }
+    }
 
-        Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), null);
-        try (OutputStreamWriter stream = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(tempFile)), StandardCharsets.UTF_8)) {
-            stream.write(serializedData.saveToString());
+    @NotNull
+    public static byte[] save(@NotNull Object data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream stream = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            BinarySerialization.write(stream, data);
         }
-        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        return bytes.toByteArray();
     }
 
     @NotNull
-    private static Object load(@NotNull String data)
+    private static Object load(@NotNull byte[] data)
             throws IOException, InvalidConfigurationException {
-        final FileConfiguration serializedData = new YamlConfiguration();
-        byte[] temp = Base64.getDecoder().decode(data);
-        ByteArrayInputStream swapStream = new ByteArrayInputStream(temp);
-        try (InputStreamReader reader = new InputStreamReader(new GZIPInputStream(swapStream), StandardCharsets.UTF_8)) {
-            serializedData.load(reader);
+        if (!BinaryFormat.isCompressed(data)) {
+            // Saved by older versions as Base64 text
+            try {
+                data = Base64.getDecoder().decode(data);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Data is neither compressed nor Base64-encoded", e);
+            }
         }
 
-        return Objects.requireNonNull(serializedData.get(ROOT_TAG), "Serialized data not found");
+        return load(new GZIPInputStream(new ByteArrayInputStream(data)));
     }
 
     @NotNull
-    private static Object load(@NotNull Path file)
+    private static Object load(@NotNull InputStream input)
             throws IOException, InvalidConfigurationException {
-        final FileConfiguration serializedData = new YamlConfiguration();
-        try (InputStreamReader reader = new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8)) {
-            serializedData.load(reader);
+        try (BufferedInputStream stream = new BufferedInputStream(input)) {
+            int version = BinaryFormat.readHeader(stream);
+            if (version == BinaryFormat.VERSION) {
+                return BinarySerialization.read(new DataInputStream(stream));
+            } else if (version != 0) {
+                throw new IOException("Unsupported version of data format: " + version);
+            }
+
+            final FileConfiguration serializedData = new YamlConfiguration();
+            serializedData.load(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            return Objects.requireNonNull(serializedData.get(ROOT_TAG), "Serialized data not found");
+        }
+    }
+
+    /**
+     * Legacy loader accepts data only as Base64 text, like it was stored in database.
+     */
+    @NotNull
+    private static String legacyText(@NotNull byte[] data) {
+        if (BinaryFormat.isCompressed(data)) {
+            return Base64.getEncoder().encodeToString(data);
         }
 
-        return Objects.requireNonNull(serializedData.get(ROOT_TAG), "Serialized data not found");
+        return new String(data, StandardCharsets.US_ASCII);
     }
 }
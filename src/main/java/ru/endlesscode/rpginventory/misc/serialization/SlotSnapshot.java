@@ -41,6 +41,7 @@ public class SlotSnapshot implements ConfigurationSerializable {
         final List<ItemStack> items = slot.getSlotIds().stream()
                 .map(inventory::getItem)
                 .filter(stack -> ItemUtils.isNotEmpty(stack) && !slot.isCup(stack))
+                .map(ItemStack::clone) // Snapshot can be serialized asynchronously
                 .collect(Collectors.toList());
 
         return new SlotSnapshot(slot.getName(), slot.getSlotType().name(), bought, items);
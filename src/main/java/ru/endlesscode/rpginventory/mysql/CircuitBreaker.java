@@ -0,0 +1,79 @@
+package ru.endlesscode.rpginventory.mysql;
+
+/**
+ * Pauses requests to the database after failure, so every request doesn't wait for the connection timeout.
+ * <p>
+ * Delay grows exponentially while requests fail. When the delay is over, one request is allowed
+ * to check whether the database is available again.
+ */
+final class CircuitBreaker {
+
+    private final long minDelay;
+    private final long maxDelay;
+
+    private long delay;
+    private long retryAt = 0;
+    private boolean open = false;
+    private boolean probing = false;
+
+    /**
+     * @param minDelay delay after the first failure, in milliseconds
+     * @param maxDelay max delay, in milliseconds
+     */
+    CircuitBreaker(long minDelay, long maxDelay) {
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.delay = minDelay;
+    }
+
+    /**
+     * @return true if request can be done now
+     */
+    synchronized boolean tryAcquire() {
+        if (!this.canTry()) {
+            return false;
+        }
+
+        if (this.open) {
+            this.probing = true;
+        }
+        return true;
+    }
+
+    synchronized boolean canTry() {
+        return !this.open || !this.probing && System.currentTimeMillis() >= this.retryAt;
+    }
+
+    /**
+     * @return true if requests were paused before
+     */
+    synchronized boolean onSuccess() {
+        boolean wasOpen = this.open;
+        this.open = false;
+        this.probing = false;
+        this.delay = this.minDelay;
+        return wasOpen;
+    }
+
+    /**
+     * @return true if requests were paused by this failure
+     */
+    synchronized boolean onFailure() {
+        long now = System.currentTimeMillis();
+        if (this.open && !this.probing) {
+            // Failure of request that was started before the pause
+            return false;
+        }
+
+        boolean wasOpen = this.open;
+        this.delay = wasOpen ? Math.min(this.delay * 2, this.maxDelay) : this.minDelay;
+        this.retryAt = now + this.delay;
+        this.open = true;
+        this.probing = false;
+        return !wasOpen;
+    }
+
+    synchronized long getDelay() {
+        return this.delay;
+    }
+}
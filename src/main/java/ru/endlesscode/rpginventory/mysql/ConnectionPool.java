@@ -0,0 +1,155 @@
+package ru.endlesscode.rpginventory.mysql;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small fixed-size pool of database connections.
+ * Connections are opened on demand, validated when were idle for a while
+ * and replaced when the operation on them fails.
+ */
+final class ConnectionPool {
+
+    private static final long VALIDATION_INTERVAL = 30 * 1000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final int timeout;
+
+    private final BlockingQueue<PooledConnection> idle = new LinkedBlockingQueue<>();
+    private int opened = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * @param timeout timeout of connection borrowing and queries, in seconds
+     */
+    ConnectionPool(@NotNull String url, @NotNull String user, @NotNull String password, int maxSize, int timeout) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.timeout = Math.max(1, timeout);
+    }
+
+    @NotNull
+    PooledConnection borrow() throws SQLException {
+        PooledConnection connection = this.pollValid();
+        if (connection != null) {
+            return connection;
+        }
+
+        if (this.tryReserve()) {
+            return this.open();
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.timeout);
+        try {
+            while (!this.closed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+
+                connection = this.idle.poll(remaining, TimeUnit.NANOSECONDS);
+                if (connection != null && this.validate(connection)) {
+                    return connection;
+                }
+
+                // Broken connection was discarded, so we can open new one
+                if (this.tryReserve()) {
+                    return this.open();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for database connection", e);
+        }
+
+        this.checkOpen();
+        throw new SQLTimeoutException("Timed out waiting for database connection");
+    }
+
+    void release(@NotNull PooledConnection connection) {
+        if (this.closed) {
+            this.discard(connection);
+            return;
+        }
+
+        connection.onRelease();
+        this.idle.offer(connection);
+    }
+
+    void discard(@NotNull PooledConnection connection) {
+        connection.closeQuietly();
+        synchronized (this) {
+            this.opened--;
+        }
+    }
+
+    void close() {
+        this.closed = true;
+        PooledConnection connection;
+        while ((connection = this.idle.poll()) != null) {
+            this.discard(connection);
+        }
+    }
+
+    private PooledConnection pollValid() throws SQLException {
+        this.checkOpen();
+
+        PooledConnection connection;
+        while ((connection = this.idle.poll()) != null) {
+            if (this.validate(connection)) {
+                return connection;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean validate(@NotNull PooledConnection connection) {
+        if (connection.getIdleTime() < VALIDATION_INTERVAL || connection.isValid(this.timeout)) {
+            return true;
+        }
+
+        this.discard(connection);
+        return false;
+    }
+
+    private synchronized boolean tryReserve() {
+        if (this.opened < this.maxSize) {
+            this.opened++;
+            return true;
+        }
+
+        return false;
+    }
+
+    @NotNull
+    private PooledConnection open() throws SQLException {
+        try {
+            this.checkOpen();
+            DriverManager.setLoginTimeout(this.timeout);
+            return new PooledConnection(DriverManager.getConnection(this.url, this.user, this.password), this.timeout);
+        } catch (SQLException e) {
+            synchronized (this) {
+                this.opened--;
+            }
+            throw e;
+        }
+    }
+
+    private void checkOpen() throws SQLException {
+        if (this.closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+    }
+}
@@ -1,24 +1,50 @@
 package ru.endlesscode.rpginventory.mysql;
 
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import ru.endlesscode.rpginventory.RPGInventory;
 import ru.endlesscode.rpginventory.utils.Log;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
 import java.sql.Statement;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 public class MysqlConn {
-    private static final String DB_URL = "jdbc:mysql://{0}:{1}/{2}?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC";
-    private static final String Table_SQL = "CREATE TABLE `{0}` ( `id` INT NOT NULL AUTO_INCREMENT COMMENT 'Auto increment' , `uuid` VARCHAR(38) NOT NULL COMMENT 'User UUID' , `data` VARBINARY(65000) NOT NULL COMMENT 'User data' , `crafttime` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT 'Create date' , `updatetime` TIMESTAMP on update CURRENT_TIMESTAMP NULL COMMENT 'Update time' , PRIMARY KEY (`id`)) ENGINE = MyISAM COMMENT = '{1}';";
-    private static final String SELECT_SQL = "select `id` FROM {0} WHERE uuid='{1}'";
-    private static final String INSERT_SQL = "INSERT INTO `{0}`(`uuid`, `data`) VALUES ('{1}', '{2}')";
-    private static final String UPDATE_SQL = "UPDATE `{0}` SET `data`='{1}' WHERE uuid='{2}'";
-    private static final String GET_SQL = "select `data` FROM {0} WHERE uuid='{1}'";
-    private static final String GET_ALL_SQL = "select `uuid`,`data` FROM `{0}`";
-    private static final String DELETE_SQL = "DELETE FROM `{0}` WHERE uuid='{1}'";
+    private static final String DB_URL = "jdbc:mysql://{0}:{1}/{2}?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC"
+            + "&useServerPrepStmts=true&cachePrepStmts=true&rewriteBatchedStatements=true&connectTimeout={3}";
+    private static final String Table_SQL = "CREATE TABLE `{0}` ( `id` INT NOT NULL AUTO_INCREMENT COMMENT 'Auto increment' , `uuid` VARCHAR(38) NOT NULL COMMENT 'User UUID' , `data` VARBINARY(65000) NOT NULL COMMENT 'User data' , `crafttime` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT 'Create date' , `updatetime` TIMESTAMP on update CURRENT_TIMESTAMP NULL COMMENT 'Update time' , PRIMARY KEY (`id`), UNIQUE KEY `uuid_unique` (`uuid`)) ENGINE = MyISAM COMMENT = '{1}';";
+    private static final String SHOW_TABLES_SQL = "SHOW TABLES LIKE ?";
+    private static final String SELECT_SQL = "SELECT `id` FROM `{0}` WHERE `uuid` = ?";
+    private static final String SHOW_UNIQUE_UUID_SQL = "SHOW INDEX FROM `{0}` WHERE `Column_name` = 'uuid' AND `Non_unique` = 0";
+    private static final String DELETE_DUPLICATES_SQL = "DELETE t1 FROM `{0}` t1 JOIN `{0}` t2 ON t1.`uuid` = t2.`uuid` AND t1.`id` < t2.`id`";
+    private static final String ADD_UNIQUE_UUID_SQL = "ALTER TABLE `{0}` ADD UNIQUE KEY `uuid_unique` (`uuid`)";
+    private static final String UPSERT_SQL = "INSERT INTO `{0}`(`uuid`, `data`) VALUES (?, ?) ON DUPLICATE KEY UPDATE `data` = VALUES(`data`)";
+    private static final String GET_SQL = "SELECT `data` FROM `{0}` WHERE `uuid` = ? ORDER BY `id` DESC LIMIT 1";
+    private static final String GET_PAGE_SQL = "SELECT `id`, `uuid`, `data` FROM `{0}` WHERE `id` > ? ORDER BY `id` LIMIT ?";
+    private static final String DELETE_SQL = "DELETE FROM `{0}` WHERE `uuid` = ?";
+
+    // Attempts of every operation. Failed connection is replaced before next attempt.
+    private static final int ATTEMPTS = 2;
+
+    // SQLState class of connection exceptions
+    private static final String CONNECTION_STATE_CLASS = "08";
+    private static final String CONNECTION_DOES_NOT_EXIST = "08003";
+    // SQLState of missing table, it is created on the next check of tables
+    private static final String TABLE_NOT_FOUND = "42S02";
+
+    // Requests are paused after failure for this time, doubled after every failed retry
+    private static final long MIN_RETRY_DELAY = 1000;
+    private static final long MAX_RETRY_DELAY = 60 * 1000;
 
     public static final String TableInventory = "inventory";
     public static final String TableBackpack = "backpack";
@@ -26,227 +52,399 @@ public class MysqlConn {
     public static final String CommentInventory = "Inventory table";
     public static final String CommentBackpack = "Backpack table";
 
-    private static Connection conn = null;
-    private static final Object lock = new Object();
+    @Nullable
+    private static ConnectionPool pool = null;
 
-    private static boolean connect() {
-        try {
-            if (conn != null)
-                conn.close();
-            RPGInventory.getInstance().getLogger().info("MySQL connecting.");
-            String USER = RPGInventory.getInstance().getConfig().getString("mysql.user", "root");
-            String PASS = RPGInventory.getInstance().getConfig().getString("mysql.password", "123456");
-            String IP = RPGInventory.getInstance().getConfig().getString("mysql.ip", "127.0.0.1");
-            String PORT = RPGInventory.getInstance().getConfig().getString("mysql.port", "3306");
-            String DATABASE = RPGInventory.getInstance().getConfig().getString("mysql.database", "3306");
-
-            conn = DriverManager.getConnection(DB_URL.replace("{0}", IP).replace("{1}", PORT).replace("{2}", DATABASE), USER, PASS);
-            Log.i(String.format("Connected to mysql %s:%s database: %s user: %s", IP, PORT, DATABASE, USER));
-            return true;
-        } catch (Exception e) {
-            RPGInventory.getInstance().closeMysql();
-            e.printStackTrace();
-        }
-        return false;
+    private static final CircuitBreaker BREAKER = new CircuitBreaker(MIN_RETRY_DELAY, MAX_RETRY_DELAY);
+
+    // Tables are checked before the first query, and again after MySQL was unavailable
+    private static final Object TABLES_LOCK = new Object();
+    private static volatile boolean tablesChecked = false;
+
+    // Upserts buffered by the current thread, grouped by table
+    private static final ThreadLocal<Map<String, Map<String, byte[]>>> BATCH = new ThreadLocal<>();
+
+    private static ConnectionPool createPool() {
+        String USER = RPGInventory.getInstance().getConfig().getString("mysql.user", "root");
+        String PASS = RPGInventory.getInstance().getConfig().getString("mysql.password", "123456");
+        String IP = RPGInventory.getInstance().getConfig().getString("mysql.ip", "127.0.0.1");
+        String PORT = RPGInventory.getInstance().getConfig().getString("mysql.port", "3306");
+        String DATABASE = RPGInventory.getInstance().getConfig().getString("mysql.database", "3306");
+        int POOL_SIZE = RPGInventory.getInstance().getConfig().getInt("mysql.pool-size", 4);
+        int TIMEOUT = RPGInventory.getInstance().getConfig().getInt("mysql.timeout", 10);
+
+        String url = DB_URL.replace("{0}", IP).replace("{1}", PORT).replace("{2}", DATABASE)
+                .replace("{3}", String.valueOf(TIMEOUT * 1000));
+        Log.i(String.format("Connecting to mysql %s:%s database: %s user: %s", IP, PORT, DATABASE, USER));
+        return new ConnectionPool(url, USER, PASS, POOL_SIZE, TIMEOUT);
     }
 
     public static void start() {
         try {
             Class.forName("com.mysql.jdbc.Driver");
-            if (connect()) {
-                Log.i("MySQL connection succeeded.");
-                checkTable();
-            } else {
-                Log.w("MySQL connection failed.");
-                RPGInventory.getInstance().closeMysql();
-            }
+            pool = createPool();
         } catch (Exception e) {
-            e.printStackTrace();
+            Log.w(e, "Failed to start MySQL connection pool.");
+            RPGInventory.getInstance().closeMysql();
+            return;
+        }
+
+        // Failed check is repeated before the next query, so MySQL may be unavailable on start
+        if (execute(() -> query("check MySQL tables", connection -> true))) {
+            Log.i("MySQL connection succeeded.");
+        } else {
+            Log.w("MySQL connection failed. Tables will be checked when MySQL is available.");
+            RPGInventory.getInstance().closeMysql();
         }
     }
 
     public static void stop() {
-        try {
-            if (conn != null)
-                conn.close();
-        } catch (Exception e) {
-            RPGInventory.getInstance().getLogger().warning("Failed to close MySQL connection.");
-            RPGInventory.getInstance().closeMysql();
-            e.printStackTrace();
+        if (pool != null) {
+            pool.close();
+            pool = null;
         }
     }
 
-    private static void checkTable() {
-        String sql = String.format("show tables like '%s';", TableInventory);
-        try {
-            Statement stmt = conn.createStatement();
-            ResultSet resultSet = stmt.executeQuery(sql);
-            if (!resultSet.isBeforeFirst()) {
-                createTable(TableInventory, CommentInventory);
-            } else {
-                resultSet.close();
+    public static boolean isConnected() {
+        return pool != null;
+    }
+
+    /**
+     * @return false if requests to the database are paused after failure
+     */
+    public static boolean isAvailable() {
+        return pool != null && BREAKER.canTry();
+    }
+
+    /**
+     * Creates missing tables and adds unique key to tables of older versions, if it wasn't done yet.
+     * Queries aren't executed until the check passes, so its failure is reported as connection failure:
+     * records are kept in spool instead of quarantine and the check is retried later.
+     */
+    private static void checkTables(@NotNull PooledConnection connection) throws SQLException {
+        if (tablesChecked) {
+            return;
+        }
+
+        synchronized (TABLES_LOCK) {
+            if (tablesChecked) {
+                return;
             }
-            sql = "show tables like '" + TableBackpack + "';";
-            resultSet = stmt.executeQuery(sql);
-            if (!resultSet.isBeforeFirst()) {
-                createTable(TableBackpack, CommentBackpack);
+
+            try {
+                checkTable(connection, TableInventory, CommentInventory);
+                checkTable(connection, TableBackpack, CommentBackpack);
+            } catch (SQLException e) {
+                if (isConnectionFailure(e)) {
+                    throw e;
+                }
+                throw new SQLTransientConnectionException("Failed to check MySQL tables: " + e, CONNECTION_DOES_NOT_EXIST, e);
             }
-            resultSet.close();
-            stmt.close();
-        } catch (Exception e) {
-            if (reconnect()) {
-                checkTable();
+            tablesChecked = true;
+        }
+    }
+
+    private static void checkTable(@NotNull PooledConnection connection, String name, String comment) throws SQLException {
+        PreparedStatement stmt = connection.prepare(SHOW_TABLES_SQL);
+        stmt.setString(1, name);
+        boolean exists;
+        try (ResultSet resultSet = stmt.executeQuery()) {
+            exists = resultSet.isBeforeFirst();
+        }
+
+        if (!exists) {
+            try (Statement createStmt = connection.getConnection().createStatement()) {
+                createStmt.execute(Table_SQL.replace("{0}", name).replace("{1}", comment));
             }
-            Log.w("Failed to check MySQL table.");
-            Log.w(String.format("sql: %s", sql));
-            e.printStackTrace();
+            Log.i(String.format("Table %s created; comment: %s", name, comment));
+        } else {
+            checkUniqueUuid(connection, name);
         }
     }
 
-    private static boolean reconnect() {
-        synchronized (lock) {
-            try {
-                if (conn == null || conn.isClosed() || conn.isReadOnly()) {
-                    Log.i("Reconnected.");
-                    return connect();
+    /**
+     * Tables created by older versions have no unique key on uuid, but upsert requires it.
+     */
+    private static void checkUniqueUuid(@NotNull PooledConnection connection, String name) throws SQLException {
+        try (Statement stmt = connection.getConnection().createStatement()) {
+            try (ResultSet resultSet = stmt.executeQuery(SHOW_UNIQUE_UUID_SQL.replace("{0}", name))) {
+                if (resultSet.isBeforeFirst()) {
+                    return;
                 }
-            } catch (Exception e) {
-                Log.w("Failed to reconnect MySQL.");
-                RPGInventory.getInstance().closeMysql();
-                e.printStackTrace();
-                return false;
             }
-            return true;
+
+            // Only the latest record of every uuid is actual
+            int removed = stmt.executeUpdate(DELETE_DUPLICATES_SQL.replace("{0}", name));
+            stmt.execute(ADD_UNIQUE_UUID_SQL.replace("{0}", name));
+            Log.i(String.format("Unique key on uuid added to table %s; duplicates removed: %d", name, removed));
         }
     }
 
-    private static void createTable(String name, String comment) {
-        try {
-            Statement stmt = conn.createStatement();
-            String sql = Table_SQL.replace("{0}", name).replace("{1}", comment);
-            stmt.execute(sql);
-            stmt.close();
-            Log.i(String.format("Table %s created; comment: %s", name, comment));
-        } catch (Exception e) {
-            if (reconnect()) {
-                createTable(name, comment);
+    public static boolean checkNull(String table, String uuid) throws SQLException {
+        return query("check player data in MySQL from table " + table, connection -> {
+            PreparedStatement stmt = connection.prepare(SELECT_SQL.replace("{0}", table));
+            stmt.setString(1, uuid);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return !resultSet.isBeforeFirst();
             }
-            Log.w("Failed to create MySQL table.");
-            e.printStackTrace();
+        });
+    }
+
+    /**
+     * Inserts or updates data in a single query.
+     * Inside of {@link #batched(Runnable, BiConsumer)} data is buffered and written later in a batch.
+     *
+     * @throws SQLException if data wasn't written, use {@link #isConnectionFailure(SQLException)} to check the reason
+     */
+    public static void upsert(String table, String uuid, byte[] data) throws SQLException {
+        Map<String, Map<String, byte[]>> batch = BATCH.get();
+        if (batch != null) {
+            batch.computeIfAbsent(table, key -> new LinkedHashMap<>()).put(uuid, data);
+        } else {
+            upsertAll(table, Collections.singletonMap(uuid, data));
         }
     }
 
-    public static boolean checkNull(String table, String uuid) {
-        boolean data = false;
-        String sql = SELECT_SQL.replace("{0}", table).replace("{1}", uuid);
-        try {
-            Statement stmt = conn.createStatement();
-            ResultSet resultSet = stmt.executeQuery(sql);
-            if (!resultSet.isBeforeFirst()) {
-                data = true;
+    /**
+     * @throws SQLException if rows weren't written, use {@link #isConnectionFailure(SQLException)} to check the reason
+     */
+    public static void upsertAll(String table, @NotNull Map<String, byte[]> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        query(String.format("save data in MySQL; table: %s; rows: %d", table, rows.size()), connection -> {
+            PreparedStatement stmt = connection.prepare(UPSERT_SQL.replace("{0}", table));
+            if (rows.size() == 1) {
+                Map.Entry<String, byte[]> row = rows.entrySet().iterator().next();
+                stmt.setString(1, row.getKey());
+                stmt.setBytes(2, row.getValue());
+                stmt.executeUpdate();
+                return true;
             }
-            resultSet.close();
-            stmt.close();
-        } catch (Exception e) {
-            if (reconnect()) {
-                return checkNull(table, uuid);
+
+            for (Map.Entry<String, byte[]> row : rows.entrySet()) {
+                stmt.setString(1, row.getKey());
+                stmt.setBytes(2, row.getValue());
+                stmt.addBatch();
             }
-            Log.w(String.format("Failed to check player data in MySQL from table %s.", table));
-            Log.w(String.format("sql: %s", sql));
-            e.printStackTrace();
-        }
-        return data;
+            stmt.executeBatch();
+            return true;
+        });
     }
 
-    public static void setData(String table, String uuid, String data) {
-        String sql = INSERT_SQL.replace("{0}", table).replace("{1}", uuid).replace("{2}", data);
+    /**
+     * Runs the action and writes all upserts made by it in the current thread as JDBC batches.
+     * Rows that weren't written are passed to the failure handler, grouped by table.
+     *
+     * @return false if some rows weren't written
+     */
+    public static boolean batched(@NotNull Runnable action, @NotNull BiConsumer<String, Map<String, byte[]>> onFailure) {
+        if (BATCH.get() != null) {
+            action.run();
+            return true;
+        }
+
+        Map<String, Map<String, byte[]>> batch = new LinkedHashMap<>();
+        BATCH.set(batch);
         try {
-            Statement stmt = conn.createStatement();
-            stmt.execute(sql);
-            stmt.close();
-        } catch (Exception e) {
-            if (reconnect()) {
-                setData(table, uuid, data);
+            action.run();
+        } finally {
+            BATCH.remove();
+        }
+
+        boolean success = true;
+        for (Map.Entry<String, Map<String, byte[]>> rows : batch.entrySet()) {
+            if (!execute(() -> upsertAll(rows.getKey(), rows.getValue()))) {
+                onFailure.accept(rows.getKey(), rows.getValue());
+                success = false;
             }
-            Log.w(String.format("Failed to insert player data in MySQL; table: %s; uuid: %s; data: %s", table, uuid, data));
-            Log.w(String.format("sql: %s", sql));
-            e.printStackTrace();
         }
+        return success;
     }
 
-    public static void update(String table, String uuid, String data) {
-        try {
-            String sql = UPDATE_SQL.replace("{0}", table).replace("{1}", data).replace("{2}", uuid);
-            Statement stmt = conn.createStatement();
-            stmt.execute(sql);
-            stmt.close();
-        } catch (Exception e) {
-            if (reconnect()) {
-                update(table, uuid, data);
+    /**
+     * @return saved data, or null if it doesn't exist
+     * @throws SQLException if data can't be read
+     */
+    @Nullable
+    public static byte[] getData(String table, String uuid) throws SQLException {
+        return query(String.format("get player data in MySQL; table: %s; uuid: %s", table, uuid), connection -> {
+            PreparedStatement stmt = connection.prepare(GET_SQL.replace("{0}", table));
+            stmt.setString(1, uuid);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next() ? resultSet.getBytes("data") : null;
             }
-            Log.w(String.format("Failed to update player data in MySQL; table: %s; uuid: %s; data: %s", table, uuid, data));
-            e.printStackTrace();
-        }
+        });
     }
 
-    public static String getData(String table, String uuid) {
-        try {
-            String sql = GET_SQL.replace("{0}", table)
-                    .replace("{1}", uuid);
-            Statement stmt = conn.createStatement();
-            ResultSet resultSet = stmt.executeQuery(sql);
-            resultSet.next();
-            String data = resultSet.getString("data");
-            resultSet.close();
-            stmt.close();
-            return data;
-        } catch (Exception e) {
-            if (reconnect()) {
-                return getData(table, uuid);
+    /**
+     * Reads rows with id greater than the given one, ordered by id.
+     * Pass id of the last row to read the next page. Whole table is never loaded at once,
+     * and connection isn't held between pages.
+     *
+     * @return rows of the page, empty if there are no more rows
+     */
+    @NotNull
+    public static List<Row> getDataPage(String table, long afterId, int limit) throws SQLException {
+        return query("get page of player data in MySQL; table: " + table, connection -> {
+            PreparedStatement stmt = connection.prepare(GET_PAGE_SQL.replace("{0}", table));
+            stmt.setLong(1, afterId);
+            stmt.setInt(2, limit);
+            stmt.setFetchSize(limit);
+
+            List<Row> rows = new ArrayList<>(limit);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    rows.add(new Row(resultSet.getLong(1), resultSet.getString(2), resultSet.getBytes(3)));
+                }
             }
-            Log.w(String.format("Failed to get player data in MySQL; table: %s; uuid: %s", table, uuid));
-            e.printStackTrace();
-        }
-        return null;
+            return rows;
+        });
+    }
+
+    /**
+     * @throws SQLException if data wasn't deleted, use {@link #isConnectionFailure(SQLException)} to check the reason
+     */
+    public static void delete(String table, String uuid) throws SQLException {
+        query("delete player data in MySQL; table: " + table, connection -> {
+            PreparedStatement stmt = connection.prepare(DELETE_SQL.replace("{0}", table));
+            stmt.setString(1, uuid);
+            stmt.executeUpdate();
+            return true;
+        });
     }
 
-    public static Map<String, String> getAllData(String table) {
+    /**
+     * @return false if the write failed
+     */
+    private static boolean execute(@NotNull Write write) {
         try {
-            Map<String, String> list = new HashMap<>();
-            String sql = GET_ALL_SQL.replace("{0}", table);
-            Statement stmt = conn.createStatement();
-            ResultSet resultSet = stmt.executeQuery(sql);
-            while (resultSet.next()) {
-                String uuid = resultSet.getString("uuid");
-                String data = resultSet.getString("data");
-                list.put(uuid, data);
+            write.run();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks that the query failed because the database or connection is unavailable,
+     * so it may succeed later without changes. Missing table is created on the next check of tables,
+     * so it is counted as connection failure too. Other failures (too big data, broken constraints,
+     * syntax errors) will fail again on every retry.
+     */
+    public static boolean isConnectionFailure(@NotNull SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientException || cause instanceof SQLNonTransientConnectionException) {
+                return true;
             }
-            resultSet.close();
-            stmt.close();
-            return list;
-        } catch (Exception e) {
-            if (reconnect()) {
-                return getAllData(table);
+
+            if (cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+                if (state != null && (state.startsWith(CONNECTION_STATE_CLASS) || state.equals(TABLE_NOT_FOUND))) {
+                    return true;
+                }
             }
-            Log.w(String.format("Failed to get all player data in MySQL; table: %s", table));
-            e.printStackTrace();
         }
-        return null;
+
+        return false;
     }
 
-    public static void delete(String table, String uuid) {
-        try {
-            String sql = DELETE_SQL.replace("{0}", table)
-                    .replace("{1}", uuid);
-            Statement stmt = conn.createStatement();
-            stmt.execute(sql);
-            stmt.close();
-        } catch (Exception e) {
-            if (reconnect()) {
-                delete(table, uuid);
+    /**
+     * Executes the operation. Failures are logged here, so callers only should handle the result.
+     * While requests are paused after failure, fails immediately.
+     * <p>
+     * Only connection failures are retried and pause the requests. Other failures mean that
+     * the database is available, but rejected this exact query.
+     */
+    private static <T> T query(String description, @NotNull Operation<T> operation) throws SQLException {
+        ConnectionPool pool = MysqlConn.pool;
+        if (pool == null) {
+            Log.w("Failed to {0}: MySQL is not connected.", description);
+            throw new SQLNonTransientConnectionException("MySQL is not connected", CONNECTION_DOES_NOT_EXIST);
+        }
+
+        if (!BREAKER.tryAcquire()) {
+            throw new SQLTransientConnectionException("MySQL requests are paused after failure", CONNECTION_DOES_NOT_EXIST);
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            PooledConnection connection = null;
+            try {
+                connection = pool.borrow();
+                checkTables(connection);
+                T result = operation.execute(connection);
+                pool.release(connection);
+                if (BREAKER.onSuccess()) {
+                    Log.i("MySQL is available again");
+                }
+                return result;
+            } catch (SQLException e) {
+                if (!isConnectionFailure(e)) {
+                    if (connection != null) {
+                        pool.release(connection);
+                    }
+                    if (BREAKER.onSuccess()) {
+                        Log.i("MySQL is available again");
+                    }
+                    Log.w("Failed to {0}: {1}", description, e.toString());
+                    throw e;
+                }
+
+                if (connection != null) {
+                    pool.discard(connection);
+                }
+                // Table may be dropped, or the database may be replaced while it was unavailable
+                tablesChecked = false;
+
+                if (attempt == ATTEMPTS) {
+                    onFailure(description, e);
+                    throw e;
+                }
             }
-            Log.w(String.format("Failed to delete player data in MySQL; table: %s", table));
-            e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    private static void onFailure(String description, @NotNull SQLException e) {
+        if (BREAKER.onFailure()) {
+            Log.w(e, "Failed to {0}. MySQL requests are paused for {1} ms.", description, String.valueOf(BREAKER.getDelay()));
+            RPGInventory.getInstance().closeMysql();
+        } else {
+            Log.w("Failed to {0}: {1}. Next try in {2} ms.", description, e.toString(), String.valueOf(BREAKER.getDelay()));
+        }
+    }
+
+    public static final class Row {
+        private final long id;
+        private final String uuid;
+        private final byte[] data;
+
+        private Row(long id, String uuid, byte[] data) {
+            this.id = id;
+            this.uuid = uuid;
+            this.data = data;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getUuid() {
+            return uuid;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Operation<T> {
+        T execute(@NotNull PooledConnection connection) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface Write {
+        void run() throws SQLException;
+    }
+}
@@ -0,0 +1,71 @@
+package ru.endlesscode.rpginventory.mysql;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Connection owned by {@link ConnectionPool} with its own prepared statements cache.
+ * Connection is leased to one thread at a time, so cached statements are never shared.
+ */
+final class PooledConnection {
+
+    private final Connection connection;
+    private final int queryTimeout;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    private long lastUse = System.currentTimeMillis();
+
+    PooledConnection(@NotNull Connection connection, int queryTimeout) {
+        this.connection = connection;
+        this.queryTimeout = queryTimeout;
+    }
+
+    @NotNull
+    PreparedStatement prepare(@NotNull String sql) throws SQLException {
+        PreparedStatement statement = this.statements.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = this.connection.prepareStatement(sql);
+            statement.setQueryTimeout(this.queryTimeout);
+            this.statements.put(sql, statement);
+        } else {
+            statement.clearParameters();
+        }
+
+        return statement;
+    }
+
+    @NotNull
+    Connection getConnection() {
+        return this.connection;
+    }
+
+    boolean isValid(int timeout) {
+        try {
+            return this.connection.isValid(timeout);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    long getIdleTime() {
+        return System.currentTimeMillis() - this.lastUse;
+    }
+
+    void onRelease() {
+        this.lastUse = System.currentTimeMillis();
+    }
+
+    void closeQuietly() {
+        this.statements.clear();
+        try {
+            // Closes all statements too
+            this.connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
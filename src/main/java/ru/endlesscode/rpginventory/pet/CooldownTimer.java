@@ -25,6 +25,7 @@ import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.scheduler.BukkitRunnable;
 import ru.endlesscode.rpginventory.RPGInventory;
 import ru.endlesscode.rpginventory.inventory.InventoryManager;
+import ru.endlesscode.rpginventory.inventory.PlayerWrapper;
 import ru.endlesscode.rpginventory.inventory.slot.Slot;
 import ru.endlesscode.rpginventory.inventory.slot.SlotManager;
 import ru.endlesscode.rpginventory.utils.ItemUtils;
@@ -54,7 +55,8 @@ class CooldownTimer extends BukkitRunnable {
             return;
         }
 
-        Inventory inventory = InventoryManager.get(this.player).getInventory();
+        PlayerWrapper playerWrapper = InventoryManager.get(this.player);
+        Inventory inventory = playerWrapper.getInventory();
         final boolean playerIsAlive = !this.player.isOnline() || this.player.isDead();
         final boolean playerHasNotPetItem = inventory.getItem(PetManager.getPetSlotId()) == null;
         if (playerIsAlive || !PetManager.isEnabled() || playerHasNotPetItem) {
@@ -63,6 +65,7 @@ class CooldownTimer extends BukkitRunnable {
         }
 
         int cooldown = PetManager.getCooldown(this.petItem);
+        playerWrapper.markDirty();
 
         if (cooldown > 1) {
             ItemStack item = this.petItem.clone();
@@ -5,31 +5,41 @@ import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.scheduler.BukkitRunnable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import ru.endlesscode.rpginventory.RPGInventory;
 import ru.endlesscode.rpginventory.inventory.InventoryManager;
+import ru.endlesscode.rpginventory.inventory.PlayerWrapper;
 import ru.endlesscode.rpginventory.inventory.slot.Slot;
 import ru.endlesscode.rpginventory.inventory.slot.SlotManager;
 import ru.endlesscode.rpginventory.utils.ItemUtils;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by Dereku on 17.04.2018
  * It is part of the RpgInventory.
  * All rights reserved 2014 - 2018 © «EndlessCode Group»
+ * <p>
+ * Cooldowns are kept in a queue ordered by the time of the next update,
+ * so every run touches only cooldowns whose label should be changed or which are expired.
  */
 public class CooldownsTimer extends BukkitRunnable {
 
-    public static final int TICK_PERIOD = 5;
-    private static final int TICK_RATE = 20 / CooldownsTimer.TICK_PERIOD;
-    //temporaryMap for avoid CME.
-    private final HashMap<UUID, ValuePair> petItemsByPlayer = new HashMap<>();
-    private final HashMap<UUID, ValuePair> temporaryMap = new HashMap<>();
+    public static final int TICK_PERIOD = 1;
+    // Countdown is shown in the item name during the last seconds of cooldown
+    private static final int LABEL_SECONDS = 60;
+    private static final long SECOND = 1000;
+
+    private final Map<UUID, Cooldown> cooldownsByPlayer = new HashMap<>();
+    private final PriorityQueue<Cooldown> queue = new PriorityQueue<>(Comparator.comparingLong(Cooldown::getNextUpdate));
     private final RPGInventory plugin;
     private final Slot petSlot;
 
@@ -45,95 +55,174 @@ public class CooldownsTimer extends BukkitRunnable {
             return;
         }
 
-        if (PetManager.getPetFromItem(itemStack) == null) {
+        PetType petType = PetManager.getPetFromItem(itemStack);
+        if (petType == null) {
             //throw new IllegalArgumentException?
             return;
         }
 
-        this.temporaryMap.put(player.getUniqueId(), new ValuePair(itemStack, new AtomicInteger(0)));
+        long now = System.currentTimeMillis();
+        Cooldown cooldown = new Cooldown(player.getUniqueId(), itemStack, PetManager.getDeathTime(itemStack), petType.getCooldown());
+        // The first update is done after a second, like the next ones
+        cooldown.nextUpdate = Math.max(now + SECOND, cooldown.computeNextUpdate(now));
+
+        this.cooldownsByPlayer.put(cooldown.playerId, cooldown);
+        this.queue.add(cooldown);
     }
 
     @Override
     public void run() {
-        //Because there is no safe way to iterate map.
-        if (!this.temporaryMap.isEmpty()) {
-            this.petItemsByPlayer.putAll(this.temporaryMap);
-            this.temporaryMap.clear();
+        long now = System.currentTimeMillis();
+        Cooldown head = this.queue.peek();
+        if (head == null || head.nextUpdate > now) {
+            return;
         }
 
-        final Iterator<Map.Entry<UUID, ValuePair>> iterator = this.petItemsByPlayer.entrySet().iterator();
-        while (iterator.hasNext()) {
-            final Map.Entry<UUID, ValuePair> next = iterator.next();
-            int ticks = next.getValue().getTimer().incrementAndGet();
+        // Pets could be respawned during update, so due cooldowns are taken before
+        List<Cooldown> due = new ArrayList<>();
+        while (head != null && head.nextUpdate <= now) {
+            due.add(this.queue.poll());
+            head = this.queue.peek();
+        }
 
-            if (ticks % CooldownsTimer.TICK_RATE != 0) {
+        for (Cooldown cooldown : due) {
+            // Replaced by a newer cooldown of the same player
+            if (this.cooldownsByPlayer.get(cooldown.playerId) != cooldown) {
                 continue;
             }
 
-            final Player player = this.plugin.getServer().getPlayer(next.getKey());
-            if (!InventoryManager.playerIsLoaded(player)) {
-                iterator.remove();
-                continue;
+            if (this.update(cooldown, now)) {
+                cooldown.nextUpdate = cooldown.computeNextUpdate(now);
+                this.queue.add(cooldown);
+            } else {
+                this.cooldownsByPlayer.remove(cooldown.playerId);
             }
+        }
+    }
 
-            final Inventory inventory = InventoryManager.get(player).getInventory();
-            if (inventory.getItem(PetManager.getPetSlotId()) == null) {
-                iterator.remove();
-                continue;
-            }
+    /**
+     * @return true if cooldown should be updated again
+     */
+    private boolean update(@NotNull Cooldown cooldown, long now) {
+        final Player player = this.plugin.getServer().getPlayer(cooldown.playerId);
+        if (!InventoryManager.playerIsLoaded(player)) {
+            return false;
+        }
 
-            final ItemStack originalItemStack = next.getValue().getItemStack();
-            int cooldown = PetManager.getCooldown(originalItemStack);
-            if (1 > cooldown) {
-                PetManager.respawnPet(player, originalItemStack);
-                inventory.setItem(PetManager.getPetSlotId(), originalItemStack);
-                iterator.remove();
-            } else if (60 >= cooldown) {
-                final ItemStack item = originalItemStack.clone();
-                final String displayName = next.getValue().getDisplayName();
-                final ItemMeta meta = item.getItemMeta();
-                if (meta != null) {
-                    meta.setDisplayName(
-                            displayName + " " + RPGInventory.getLanguage().getMessage("pet.cooldown", cooldown)
-                    );
-                    PetManager.addGlow(meta);
-                    item.setItemMeta(meta);
-                }
+        final PlayerWrapper playerWrapper = InventoryManager.get(player);
+        final Inventory inventory = playerWrapper.getInventory();
+        if (inventory.getItem(PetManager.getPetSlotId()) == null) {
+            return false;
+        }
 
-                String itemTag = ItemUtils.getTag(item, ItemUtils.PET_TAG);
-                if (!itemTag.isEmpty()) {
-                    ItemUtils.setTag(item, ItemUtils.PET_TAG, itemTag);
-                    inventory.setItem(PetManager.getPetSlotId(), item);
-                } else {
-                    inventory.setItem(PetManager.getPetSlotId(), this.petSlot.getCup());
-                    iterator.remove();
-                }
-            }
+        int seconds = cooldown.getSecondsLeft(now);
+        if (seconds < 1) {
+            playerWrapper.markDirty();
+            PetManager.saveDeathTime(cooldown.petItem, 0);
+            PetManager.respawnPet(player, cooldown.petItem);
+            inventory.setItem(PetManager.getPetSlotId(), cooldown.petItem);
+            return false;
+        }
+
+        if (seconds > LABEL_SECONDS) {
+            return true;
+        }
+
+        playerWrapper.markDirty();
+        ItemStack label = cooldown.getLabel(seconds);
+        if (label == null) {
+            inventory.setItem(PetManager.getPetSlotId(), this.petSlot.getCup());
+            return false;
         }
+
+        inventory.setItem(PetManager.getPetSlotId(), label);
+        return true;
     }
 
-    private static class ValuePair {
-        private final ItemStack itemStack;
-        private final AtomicInteger timer;
+    private static class Cooldown {
+        private final UUID playerId;
+        private final ItemStack petItem;
         private final String displayName;
+        private final long deathTime;
+        private final int cooldownSeconds;
+
+        // Pet item with glow, the countdown is added to its name
+        @Nullable
+        private ItemStack labelBase;
+        private long nextUpdate;
 
-        private ValuePair(ItemStack itemStack, AtomicInteger timer) {
-            this.itemStack = itemStack;
+        private Cooldown(UUID playerId, ItemStack petItem, long deathTime, int cooldownSeconds) {
+            this.playerId = playerId;
+            this.petItem = petItem;
             //I have no idea why displayName with countdown applies to the original ItemStack after restoring inventory.
-            this.displayName = itemStack.getItemMeta().getDisplayName();
-            this.timer = timer;
+            this.displayName = petItem.getItemMeta().getDisplayName();
+            this.deathTime = deathTime;
+            this.cooldownSeconds = cooldownSeconds;
         }
 
-        private ItemStack getItemStack() {
-            return itemStack;
+        private long getNextUpdate() {
+            return nextUpdate;
         }
 
-        private String getDisplayName() {
-            return displayName;
+        /**
+         * Works like {@link PetManager#getCooldown(ItemStack)}, but without reading of the item.
+         */
+        private int getSecondsLeft(long now) {
+            if (deathTime == 0) {
+                return 0;
+            }
+
+            int secondsSinceDeath = (int) ((now - deathTime) / SECOND);
+            int secondsLeft = cooldownSeconds - secondsSinceDeath;
+            return secondsLeft < 0 || secondsLeft > cooldownSeconds ? 0 : secondsLeft;
         }
 
-        private AtomicInteger getTimer() {
-            return timer;
+        /**
+         * Returns time when the countdown label will be changed or the cooldown will be expired.
+         */
+        private long computeNextUpdate(long now) {
+            int secondsLeft = getSecondsLeft(now);
+            if (secondsLeft < 1) {
+                return now;
+            }
+
+            long secondsSinceDeath = cooldownSeconds - secondsLeft;
+            long labelStart = cooldownSeconds - LABEL_SECONDS;
+            return deathTime + Math.max(secondsSinceDeath + 1, labelStart) * SECOND;
+        }
+
+        @Nullable
+        private ItemStack getLabel(int seconds) {
+            if (labelBase == null) {
+                labelBase = createLabelBase();
+                if (labelBase == null) {
+                    return null;
+                }
+            }
+
+            final ItemStack item = labelBase.clone();
+            final ItemMeta meta = item.getItemMeta();
+            if (meta != null) {
+                meta.setDisplayName(displayName + " " + RPGInventory.getLanguage().getMessage("pet.cooldown", seconds));
+                item.setItemMeta(meta);
+            }
+            return item;
+        }
+
+        @Nullable
+        private ItemStack createLabelBase() {
+            String itemTag = ItemUtils.getTag(petItem, ItemUtils.PET_TAG);
+            if (itemTag.isEmpty()) {
+                return null;
+            }
+
+            ItemStack item = petItem.clone();
+            final ItemMeta meta = item.getItemMeta();
+            if (meta != null) {
+                PetManager.addGlow(meta);
+                item.setItemMeta(meta);
+            }
+            return ItemUtils.setTag(item, ItemUtils.PET_TAG, itemTag);
         }
     }
 }
@@ -0,0 +1,101 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ru.endlesscode.rpginventory.pet;
+
+import org.bukkit.Location;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.jetbrains.annotations.NotNull;
+import ru.endlesscode.rpginventory.RPGInventory;
+import ru.endlesscode.rpginventory.inventory.InventoryManager;
+import ru.endlesscode.rpginventory.utils.EntityUtils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Moves pets to their owners.
+ * <p>
+ * Owner is queued only when moved far enough from the location of the last path request.
+ * Every tick only limited number of queued pets are re-pathed, the rest wait for the next ticks.
+ */
+class PetFollowTask extends BukkitRunnable {
+
+    static final int TICK_PERIOD = 1;
+    private static final int PATHS_PER_TICK = 10;
+    private static final double MOVE_THRESHOLD_SQUARED = 2 * 2;
+
+    private final RPGInventory plugin;
+    // Owner locations of the last path requests
+    private final Map<UUID, Location> lastTargets = new HashMap<>();
+    private final Set<UUID> queue = new LinkedHashSet<>();
+
+    PetFollowTask(@NotNull RPGInventory plugin) {
+        this.plugin = plugin;
+    }
+
+    void onOwnerMove(@NotNull Player player, @NotNull Location to) {
+        UUID playerId = player.getUniqueId();
+        Location lastTarget = this.lastTargets.get(playerId);
+        if (lastTarget != null && lastTarget.getWorld() == to.getWorld()
+                && lastTarget.distanceSquared(to) < MOVE_THRESHOLD_SQUARED) {
+            return;
+        }
+
+        this.queue.add(playerId);
+    }
+
+    void forget(@NotNull UUID playerId) {
+        this.lastTargets.remove(playerId);
+        this.queue.remove(playerId);
+    }
+
+    @Override
+    public void run() {
+        Iterator<UUID> iterator = this.queue.iterator();
+        for (int i = 0; i < PATHS_PER_TICK && iterator.hasNext(); i++) {
+            UUID playerId = iterator.next();
+            iterator.remove();
+            this.follow(playerId);
+        }
+    }
+
+    private void follow(@NotNull UUID playerId) {
+        Player player = this.plugin.getServer().getPlayer(playerId);
+        LivingEntity petEntity = InventoryManager.playerIsLoaded(player) ? InventoryManager.get(player).getPet() : null;
+        if (petEntity == null) {
+            this.lastTargets.remove(playerId);
+            return;
+        }
+
+        this.lastTargets.put(playerId, player.getLocation());
+        if (!petEntity.getPassengers().isEmpty() && petEntity.getPassengers().get(0) != player) {
+            PetType pet = PetManager.getPetFromEntity(petEntity, player);
+            if (pet != null && pet.getRole() != PetType.Role.COMPANION) {
+                EntityUtils.goPetToPlayer(player, petEntity);
+            }
+        }
+    }
+}
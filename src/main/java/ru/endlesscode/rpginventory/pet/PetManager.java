@@ -84,6 +84,7 @@ public class PetManager {
     private static final Map<String, PetFood> PET_FOOD = new HashMap<>();
     private static final String DEATH_TIME_TAG = "pet.deathTime";
     private static CooldownsTimer COOLDOWNS_TIMER;
+    private static PetFollowTask FOLLOW_TASK;
     private static int SLOT_PET;
 
     private PetManager() {
@@ -154,6 +155,8 @@ public class PetManager {
         instance.getServer().getPluginManager().registerEvents(new PetListener(), instance);
         PetManager.COOLDOWNS_TIMER = new CooldownsTimer(instance);
         PetManager.COOLDOWNS_TIMER.runTaskTimer(instance, 20, CooldownsTimer.TICK_PERIOD);
+        PetManager.FOLLOW_TASK = new PetFollowTask(instance);
+        PetManager.FOLLOW_TASK.runTaskTimer(instance, 20, PetFollowTask.TICK_PERIOD);
         return true;
     }
 
@@ -218,6 +221,13 @@ public class PetManager {
         PetManager.COOLDOWNS_TIMER.addPetCooldown(player, petItem);
     }
 
+    /**
+     * Requests moving of the player's pet to the player. Pet will be moved on one of the next ticks.
+     */
+    public static void onOwnerMove(@NotNull Player player, @NotNull Location to) {
+        PetManager.FOLLOW_TASK.onOwnerMove(player, to);
+    }
+
     public static void teleportPet(@NotNull final Player player, @Nullable final Location to) {
         if (!InventoryManager.playerIsLoaded(player) || !PetManager.isEnabled()) {
             return;
@@ -407,11 +417,13 @@ public class PetManager {
         if (petItem != null) {
             PetManager.saveHealth(petItem, pet.getHealth());
             inventory.setItem(SLOT_PET, petItem);
+            playerWrapper.markDirty();
         }
 
         EffectUtils.playDespawnEffect(pet);
         pet.remove();
         playerWrapper.setPet(null);
+        PetManager.FOLLOW_TASK.forget(player.getUniqueId());
     }
 
     public static void despawnPet(Tameable petEntity) {
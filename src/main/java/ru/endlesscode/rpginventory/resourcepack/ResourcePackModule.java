@@ -45,6 +45,8 @@ import ru.endlesscode.rpginventory.utils.EffectUtils;
 import ru.endlesscode.rpginventory.utils.Log;
 import ru.endlesscode.rpginventory.utils.PlayerUtils;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -62,12 +64,17 @@ public class ResourcePackModule implements Listener {
     private final String resourcePackUrl;
     private final String resourcePackHash;
 
+    @Nullable
+    private final ResourcePackServer server;
+
     private final List<UUID> loadList = new ArrayList<>();
 
-    private ResourcePackModule(Plugin plugin, @NotNull String resourcePackUrl, String resourcePackHash) {
+    private ResourcePackModule(Plugin plugin, @NotNull String resourcePackUrl, String resourcePackHash,
+                               @Nullable ResourcePackServer server) {
         this.plugin = plugin;
         this.resourcePackUrl = resourcePackUrl;
         this.resourcePackHash = resourcePackHash;
+        this.server = server;
     }
 
     @Nullable
@@ -78,6 +85,10 @@ public class ResourcePackModule implements Listener {
             return null;
         }
 
+        if (config.getBoolean("resource-pack.server.enabled", false)) {
+            return initWithServer(plugin, config);
+        }
+
         final String rpUrl = Config.getConfig().getString("resource-pack.url");
         final String rpHash = Config.getConfig().getString("resource-pack.hash");
         ResourcePackValidator validator = new ResourcePackValidator();
@@ -88,12 +99,48 @@ public class ResourcePackModule implements Listener {
             return null;
         }
 
-        ResourcePackModule resourcePackModule = new ResourcePackModule(plugin, rpUrl, rpHash);
+        return register(plugin, new ResourcePackModule(plugin, rpUrl, rpHash, null));
+    }
+
+    /**
+     * Shares RP from the plugin folder with the built-in server.
+     * URL and hash are known, so validation isn't needed.
+     */
+    @Nullable
+    private static ResourcePackModule initWithServer(@NotNull Plugin plugin, @NotNull FileConfiguration config) {
+        Path file = plugin.getDataFolder().toPath().resolve(config.getString("resource-pack.server.file", "resource-pack.zip"));
+        int port = config.getInt("resource-pack.server.port", 8123);
+
+        ResourcePackServer server;
+        try {
+            server = ResourcePackServer.start(file, port);
+        } catch (IOException e) {
+            Log.s("Resource-pack server can not be started: {0}", e.toString());
+            return null;
+        }
+
+        String address = config.getString("resource-pack.server.address", "127.0.0.1");
+        String url = "http://" + address + ":" + port + server.getPath();
+        Log.i("Resource-pack is shared at {0}", url);
+        return register(plugin, new ResourcePackModule(plugin, url, server.getHash(), server));
+    }
+
+    @NotNull
+    private static ResourcePackModule register(@NotNull Plugin plugin, @NotNull ResourcePackModule resourcePackModule) {
         plugin.getServer().getPluginManager().registerEvents(resourcePackModule, plugin);
         ProtocolLibrary.getProtocolManager().addPacketListener(resourcePackModule.new ResourcePackPacketAdapter(plugin));
         return resourcePackModule;
     }
 
+    /**
+     * Stops built-in server if it was started.
+     */
+    public void shutdown() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
     private static void printErrorsIfNotEmpty(@NotNull List<String> messages) {
         if (messages.isEmpty()) {
             return;
@@ -0,0 +1,496 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.resourcepack;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.rpginventory.utils.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal HTTP server that shares resource-pack file from the plugin folder.
+ * <p>
+ * Supports only GET and HEAD requests of the pack. File is sent with {@link FileChannel#transferTo},
+ * so it isn't copied through the heap. Responses have ETag with SHA-1 of the pack and support range requests.
+ * Connection is closed after each response, or if the client doesn't receive anything for {@link #WRITE_TIMEOUT},
+ * so slow clients can't occupy all workers.
+ * <p>
+ * The pack is copied on start and the copy is served, so it always matches the hash given to clients,
+ * even if the pack is replaced while the server is running.
+ */
+final class ResourcePackServer {
+
+    private static final int WORKERS = 4;
+    private static final int MAX_PENDING_CONNECTIONS = 64;
+    private static final int READ_TIMEOUT = 10_000;
+    private static final int WRITE_TIMEOUT = 10_000;
+    private static final int MAX_HEADER_SIZE = 8 * 1024;
+
+    private static final String HASH_CACHE_SUFFIX = ".sha1";
+    private static final String MIME_ZIP = "application/zip";
+    // Range that is valid, but can't be satisfied
+    static final long[] UNSATISFIABLE = new long[0];
+
+    private final Path copy;
+    private final FileChannel fileChannel;
+    private final String hash;
+    private final String path;
+    private final String etag;
+    private final ServerSocketChannel serverChannel;
+    private final ThreadPoolExecutor workers;
+    private final Thread acceptor;
+
+    private ResourcePackServer(@NotNull Path copy, @NotNull FileChannel fileChannel, @NotNull String hash,
+                               @NotNull ServerSocketChannel serverChannel) {
+        this.copy = copy;
+        this.fileChannel = fileChannel;
+        this.hash = hash;
+        this.path = "/" + hash + ".zip";
+        this.etag = "\"" + hash + "\"";
+        this.serverChannel = serverChannel;
+
+        this.workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_PENDING_CONNECTIONS), r -> {
+            Thread thread = new Thread(r, "RPGInventory RP Server Worker");
+            thread.setDaemon(true);
+            return thread;
+        }, (r, executor) -> {
+            throw new IllegalStateException("Too many connections");
+        });
+
+        this.acceptor = new Thread(this::acceptConnections, "RPGInventory RP Server");
+        this.acceptor.setDaemon(true);
+    }
+
+    /**
+     * Copies the file, computes its hash and starts server on the given port.
+     */
+    @NotNull
+    static ResourcePackServer start(@NotNull Path file, int port) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            throw new IOException("File not found: " + file);
+        }
+
+        Path copy = Files.createTempFile("rpginventory-pack", ".zip");
+        FileChannel fileChannel = null;
+        ServerSocketChannel serverChannel = null;
+        try {
+            String hash = copyWithHash(file, copy);
+            fileChannel = FileChannel.open(copy, StandardOpenOption.READ);
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+
+            ResourcePackServer server = new ResourcePackServer(copy, fileChannel, hash, serverChannel);
+            server.acceptor.start();
+            return server;
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(serverChannel);
+            closeQuietly(fileChannel);
+            Files.deleteIfExists(copy);
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the file and returns hash of the copy.
+     * Cached hash is used if the file wasn't changed while it was copied.
+     */
+    @NotNull
+    private static String copyWithHash(@NotNull Path file, @NotNull Path copy) throws IOException {
+        String stateBefore = getFileState(file);
+        Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+        return stateBefore.equals(getFileState(file)) && Files.size(copy) == Files.size(file)
+                ? getHash(file)
+                : computeHash(copy);
+    }
+
+    @NotNull
+    String getHash() {
+        return hash;
+    }
+
+    /**
+     * Returns path of the pack on this server. It contains hash, so clients don't use cached pack after change.
+     */
+    @NotNull
+    String getPath() {
+        return path;
+    }
+
+    void stop() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            Log.w(e);
+        }
+        workers.shutdownNow();
+
+        try {
+            workers.awaitTermination(READ_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        closeQuietly(fileChannel);
+        try {
+            Files.deleteIfExists(copy);
+        } catch (IOException e) {
+            Log.w("Can''t delete copy of resource-pack: {0}", e.toString());
+        }
+    }
+
+    private void acceptConnections() {
+        while (serverChannel.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                Log.w(e);
+                continue;
+            }
+
+            try {
+                workers.execute(() -> handle(channel));
+            } catch (RuntimeException e) {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void handle(@NotNull SocketChannel channel) {
+        try {
+            channel.socket().setSoTimeout(READ_TIMEOUT);
+            // Timeout works only with streams of socket
+            Request request = readRequest(new BufferedInputStream(channel.socket().getInputStream()));
+
+            // But not for writes, so they are non-blocking and limited with selector
+            channel.configureBlocking(false);
+            try (Selector selector = Selector.open()) {
+                channel.register(selector, SelectionKey.OP_WRITE);
+                respond(new Output(channel, selector), request);
+            }
+        } catch (SocketTimeoutException ignored) {
+            // Client is too slow, just drop it
+        } catch (IOException e) {
+            Log.d(e);
+        } finally {
+            closeQuietly(channel);
+        }
+    }
+
+    private void respond(@NotNull Output channel, @Nullable Request request) throws IOException {
+        if (request == null) {
+            sendHeaders(channel, "400 Bad Request", 0, null);
+            return;
+        }
+
+        boolean isHead = "HEAD".equals(request.method);
+        if (!isHead && !"GET".equals(request.method)) {
+            sendHeaders(channel, "405 Method Not Allowed", 0, "Allow: GET, HEAD\r\n");
+            return;
+        }
+
+        if (!path.equals(request.path)) {
+            sendHeaders(channel, "404 Not Found", 0, null);
+            return;
+        }
+
+        String commonHeaders = "ETag: " + etag + "\r\nAccept-Ranges: bytes\r\n";
+        if (etag.equals(request.headers.get("if-none-match"))) {
+            sendHeaders(channel, "304 Not Modified", -1, commonHeaders);
+            return;
+        }
+
+        long size = fileChannel.size();
+        long start = 0;
+        long end = size - 1;
+
+        String range = request.headers.get("range");
+        String ifRange = request.headers.get("if-range");
+        long[] bounds = range != null && (ifRange == null || etag.equals(ifRange)) ? parseRange(range, size) : null;
+        if (bounds == UNSATISFIABLE) {
+            sendHeaders(channel, "416 Range Not Satisfiable", 0, "Content-Range: bytes */" + size + "\r\n");
+            return;
+        } else if (bounds != null) {
+            start = bounds[0];
+            end = bounds[1];
+            sendHeaders(channel, "206 Partial Content", end - start + 1, commonHeaders
+                    + "Content-Type: " + MIME_ZIP + "\r\n"
+                    + "Content-Range: bytes " + start + "-" + end + "/" + size + "\r\n");
+        } else {
+            sendHeaders(channel, "200 OK", size, commonHeaders + "Content-Type: " + MIME_ZIP + "\r\n");
+        }
+
+        if (!isHead) {
+            channel.transfer(fileChannel, start, end - start + 1);
+        }
+    }
+
+    private static void sendHeaders(@NotNull Output channel, @NotNull String status,
+                                    long contentLength, @Nullable String headers) throws IOException {
+        StringBuilder response = new StringBuilder("HTTP/1.1 ").append(status).append("\r\n")
+                .append("Connection: close\r\n");
+        if (contentLength >= 0) {
+            response.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        if (headers != null) {
+            response.append(headers);
+        }
+        response.append("\r\n");
+
+        channel.write(ByteBuffer.wrap(response.toString().getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Parses single byte range. Like RFC 7233 allows, the header is ignored if it has unknown unit,
+     * isn't valid or contains multiple ranges, so the whole file is sent.
+     *
+     * @return first and last byte positions, {@link #UNSATISFIABLE} if range is valid but can't be satisfied,
+     * or null if the header should be ignored
+     */
+    @Nullable
+    static long[] parseRange(@NotNull String range, long size) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') != -1) {
+            return null;
+        }
+
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+
+        long start;
+        long end;
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // Suffix range: last N bytes
+                long length = Long.parseLong(last);
+                if (length < 0) {
+                    return null;
+                }
+                if (length == 0 || size == 0) {
+                    return UNSATISFIABLE;
+                }
+                start = Math.max(0, size - length);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (start < 0 || end < start) {
+            return null;
+        }
+        if (start >= size) {
+            return UNSATISFIABLE;
+        }
+        return new long[]{start, Math.min(end, size - 1)};
+    }
+
+    @Nullable
+    private static Request readRequest(@NotNull InputStream input) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = input.read();
+            if (b == -1 || header.size() >= MAX_HEADER_SIZE) {
+                return null;
+            }
+            header.write(b);
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+
+        String[] lines = new String(header.toByteArray(), StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) {
+            return null;
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ENGLISH), lines[i].substring(colon + 1).trim());
+            }
+        }
+
+        String requestPath = requestLine[1];
+        int query = requestPath.indexOf('?');
+        if (query != -1) {
+            requestPath = requestPath.substring(0, query);
+        }
+        return new Request(requestLine[0], requestPath, headers);
+    }
+
+    /**
+     * Returns SHA-1 of the file. Computed hash is cached next to the file
+     * and used while the file's modification time and size are the same.
+     */
+    @NotNull
+    static String getHash(@NotNull Path file) throws IOException {
+        Path cacheFile = file.resolveSibling(file.getFileName() + HASH_CACHE_SUFFIX);
+        String fileState = getFileState(file);
+
+        if (Files.isRegularFile(cacheFile)) {
+            List<String> lines = Files.readAllLines(cacheFile, StandardCharsets.UTF_8);
+            if (lines.size() == 2 && fileState.equals(lines.get(0))) {
+                return lines.get(1);
+            }
+        }
+
+        String hash = computeHash(file);
+        try {
+            Files.write(cacheFile, (fileState + "\n" + hash + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w("Can''t cache hash of resource-pack: {0}", e.toString());
+        }
+        return hash;
+    }
+
+    @NotNull
+    private static String getFileState(@NotNull Path file) throws IOException {
+        return Files.getLastModifiedTime(file).toMillis() + ":" + Files.size(file);
+    }
+
+    @NotNull
+    private static String computeHash(@NotNull Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static void closeQuietly(@Nullable Channel channel) {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing to do
+        }
+    }
+
+    /**
+     * Writes to non-blocking socket channel and waits while the client receives data.
+     * Throws {@link SocketTimeoutException} if the client doesn't receive anything for {@link #WRITE_TIMEOUT}.
+     */
+    private static final class Output {
+        private final SocketChannel channel;
+        private final Selector selector;
+
+        private Output(@NotNull SocketChannel channel, @NotNull Selector selector) {
+            this.channel = channel;
+            this.selector = selector;
+        }
+
+        void write(@NotNull ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    awaitWritable();
+                }
+            }
+        }
+
+        void transfer(@NotNull FileChannel from, long position, long count) throws IOException {
+            while (count > 0) {
+                long transferred = from.transferTo(position, count, channel);
+                if (transferred == 0) {
+                    awaitWritable();
+                    continue;
+                }
+                position += transferred;
+                count -= transferred;
+            }
+        }
+
+        private void awaitWritable() throws IOException {
+            selector.selectedKeys().clear();
+            if (selector.select(WRITE_TIMEOUT) == 0) {
+                throw new SocketTimeoutException("Client doesn't receive data");
+            }
+        }
+    }
+
+    private static class Request {
+        private final String method;
+        private final String path;
+        private final Map<String, String> headers;
+
+        private Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+    }
+}
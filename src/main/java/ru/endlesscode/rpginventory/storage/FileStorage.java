@@ -0,0 +1,135 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.rpginventory.utils.FileUtils;
+import ru.endlesscode.rpginventory.utils.Log;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Stores every record in a separate file.
+ */
+class FileStorage implements InventoryStorage {
+
+    private final Path dataFolder;
+
+    FileStorage(@NotNull Path dataFolder) {
+        this.dataFolder = dataFolder;
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    @Nullable
+    @Override
+    public byte[] load(@NotNull RecordType type, @NotNull UUID id) throws IOException {
+        try {
+            return Files.readAllBytes(getFile(type, id));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void save(@NotNull RecordType type, @NotNull UUID id, @NotNull byte[] data) throws IOException {
+        Path file = getFile(type, id);
+        Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), null);
+        try {
+            Files.write(tempFile, data);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Override
+    public boolean exists(@NotNull RecordType type, @NotNull UUID id) throws IOException {
+        return Files.exists(getFile(type, id));
+    }
+
+    @Override
+    public void delete(@NotNull RecordType type, @NotNull UUID id) throws IOException {
+        Files.deleteIfExists(getFile(type, id));
+    }
+
+    @Override
+    public void forEach(@NotNull RecordType type, @NotNull RecordConsumer consumer) throws IOException {
+        try (Stream<Path> files = Files.list(getFolder(type))) {
+            Iterator<Path> iterator = files.iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                String fileName = file.getFileName().toString();
+                if (!Files.isRegularFile(file) || !fileName.endsWith(type.getExtension())) {
+                    continue;
+                }
+
+                UUID id;
+                try {
+                    id = UUID.fromString(FileUtils.stripExtension(fileName));
+                } catch (IllegalArgumentException e) {
+                    Log.w("File {0} skipped: name is not UUID", fileName);
+                    continue;
+                }
+
+                consumer.accept(id, Files.readAllBytes(file));
+            }
+        }
+    }
+
+    @Override
+    public boolean markBroken(@NotNull RecordType type, @NotNull UUID id) {
+        try {
+            FileUtils.resolveException(getFile(type, id));
+            return true;
+        } catch (IOException e) {
+            Log.w(e);
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        // Nothing to close
+    }
+
+    @NotNull
+    private Path getFile(@NotNull RecordType type, @NotNull UUID id) throws IOException {
+        return getFolder(type).resolve(id + type.getExtension());
+    }
+
+    @NotNull
+    private Path getFolder(@NotNull RecordType type) throws IOException {
+        Path folder = dataFolder.resolve(type.getFolder());
+        Files.createDirectories(folder);
+        return folder;
+    }
+}
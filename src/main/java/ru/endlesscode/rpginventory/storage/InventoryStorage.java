@@ -0,0 +1,80 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Storage of serialized inventories and backpacks.
+ * <p>
+ * Implementations should be thread-safe, records are read and written from the main thread,
+ * the save queue and asynchronous tasks.
+ */
+public interface InventoryStorage {
+
+    @NotNull
+    String getName();
+
+    /**
+     * @return saved data, or null if record doesn't exist
+     */
+    @Nullable
+    byte[] load(@NotNull RecordType type, @NotNull UUID id) throws IOException;
+
+    void save(@NotNull RecordType type, @NotNull UUID id, @NotNull byte[] data) throws IOException;
+
+    boolean exists(@NotNull RecordType type, @NotNull UUID id) throws IOException;
+
+    void delete(@NotNull RecordType type, @NotNull UUID id) throws IOException;
+
+    /**
+     * Passes all records of the given type to the consumer.
+     */
+    void forEach(@NotNull RecordType type, @NotNull RecordConsumer consumer) throws IOException;
+
+    /**
+     * Keeps the record that can't be loaded for manual recovery, so it will not be overwritten.
+     *
+     * @return true if the record was kept
+     */
+    default boolean markBroken(@NotNull RecordType type, @NotNull UUID id) {
+        // Nothing by default
+        return false;
+    }
+
+    /**
+     * Runs the action so that records saved by it in the current thread may be written together.
+     *
+     * @throws IOException if records saved by the action weren't written
+     */
+    default void batched(@NotNull Runnable action) throws IOException {
+        action.run();
+    }
+
+    void close();
+
+    @FunctionalInterface
+    interface RecordConsumer {
+        void accept(@NotNull UUID id, @NotNull byte[] data) throws IOException;
+    }
+}
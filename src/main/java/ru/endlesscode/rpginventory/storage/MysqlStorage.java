@@ -0,0 +1,417 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.rpginventory.mysql.MysqlConn;
+import ru.endlesscode.rpginventory.utils.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Stores records in MySQL database. Errors are handled by {@link MysqlConn}.
+ * <p>
+ * Changes that can't be written while the database is unavailable are appended to the spool journal.
+ * They are replayed in order by a background thread when the database becomes available again.
+ * While the journal isn't empty, all changes go to it, so older changes never overwrite newer ones.
+ * <p>
+ * Records rejected by MySQL itself (too big data, broken constraints) will be rejected on every retry,
+ * so they are moved to the quarantine folder, in the layout of file storage, for manual recovery.
+ */
+class MysqlStorage implements InventoryStorage {
+
+    private static final long REPLAY_INTERVAL = 5000;
+    private static final int REPLAY_BATCH_SIZE = 500;
+    private static final int PAGE_SIZE = 256;
+
+    @Nullable
+    private final SpoolJournal spool;
+    @NotNull
+    private final FileStorage quarantine;
+    @Nullable
+    private final Thread replayer;
+    private volatile boolean closed = false;
+
+    MysqlStorage(@NotNull Path spoolFile, @NotNull Path quarantineFolder) {
+        MysqlConn.start();
+        this.spool = openSpool(spoolFile);
+        this.quarantine = new FileStorage(quarantineFolder);
+
+        SpoolJournal spool = this.spool;
+        if (spool != null) {
+            this.replayer = new Thread(() -> replaySpool(spool), "RPGInventory MySQL Spool");
+            this.replayer.setDaemon(true);
+            this.replayer.start();
+        } else {
+            this.replayer = null;
+        }
+    }
+
+    @Nullable
+    private static SpoolJournal openSpool(@NotNull Path file) {
+        try {
+            SpoolJournal spool = SpoolJournal.open(file);
+            if (!spool.isEmpty()) {
+                Log.i("{0} records from spool will be written to MySQL", String.valueOf(spool.size()));
+            }
+            return spool;
+        } catch (IOException e) {
+            Log.w(e, "Failed to open MySQL spool. Changes will be lost while MySQL is unavailable");
+            return null;
+        }
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "mysql";
+    }
+
+    @Nullable
+    @Override
+    public byte[] load(@NotNull RecordType type, @NotNull UUID id) throws IOException {
+        SpoolJournal.Entry entry = spool == null ? null : spool.get(type, id);
+        if (entry != null) {
+            return entry.getData();
+        }
+
+        try {
+            return MysqlConn.getData(type.getTable(), id.toString());
+        } catch (SQLException e) {
+            throw new IOException("Failed to load record " + id + " from table " + type.getTable(), e);
+        }
+    }
+
+    @Override
+    public void save(@NotNull RecordType type, @NotNull UUID id, @NotNull byte[] data) throws IOException {
+        if (spool != null && !spool.isEmpty()) {
+            spool.append(type, id, data);
+            return;
+        }
+
+        try {
+            MysqlConn.upsert(type.getTable(), id.toString(), data);
+        } catch (SQLException e) {
+            if (!MysqlConn.isConnectionFailure(e)) {
+                quarantine(type, id, data, e);
+                throw new IOException("Record " + id + " was rejected by MySQL and moved to quarantine", e);
+            } else if (spool == null) {
+                throw new IOException("Failed to save record " + id + " to table " + type.getTable(), e);
+            }
+            spool.append(type, id, data);
+        }
+    }
+
+    @Override
+    public boolean exists(@NotNull RecordType type, @NotNull UUID id) throws IOException {
+        SpoolJournal.Entry entry = spool == null ? null : spool.get(type, id);
+        if (entry != null) {
+            return entry.getData() != null;
+        }
+
+        try {
+            return !MysqlConn.checkNull(type.getTable(), id.toString());
+        } catch (SQLException e) {
+            throw new IOException("Failed to check record " + id + " in table " + type.getTable(), e);
+        }
+    }
+
+    @Override
+    public void delete(@NotNull RecordType type, @NotNull UUID id) throws IOException {
+        if (spool != null && !spool.isEmpty()) {
+            spool.append(type, id, null);
+            return;
+        }
+
+        try {
+            MysqlConn.delete(type.getTable(), id.toString());
+        } catch (SQLException e) {
+            if (!MysqlConn.isConnectionFailure(e) || spool == null) {
+                throw new IOException("Failed to delete record " + id + " from table " + type.getTable(), e);
+            }
+            spool.append(type, id, null);
+        }
+    }
+
+    /**
+     * Reads records page by page. The next page is read in background while the current one is processed.
+     */
+    @Override
+    public void forEach(@NotNull RecordType type, @NotNull RecordConsumer consumer) throws IOException {
+        // Spooled changes are newer than records in the database
+        Map<UUID, SpoolJournal.Entry> spooled = new LinkedHashMap<>();
+        if (spool != null) {
+            for (SpoolJournal.Entry entry : spool.getEntries()) {
+                if (entry.getType() == type) {
+                    spooled.put(entry.getId(), entry);
+                }
+            }
+        }
+
+        String table = type.getTable();
+        ExecutorService reader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "RPGInventory MySQL Reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Future<List<MysqlConn.Row>> nextPage = reader.submit(() -> MysqlConn.getDataPage(table, 0, PAGE_SIZE));
+            while (nextPage != null) {
+                List<MysqlConn.Row> page = awaitPage(nextPage, table);
+                if (page.size() == PAGE_SIZE) {
+                    long lastId = page.get(page.size() - 1).getId();
+                    nextPage = reader.submit(() -> MysqlConn.getDataPage(table, lastId, PAGE_SIZE));
+                } else {
+                    nextPage = null;
+                }
+
+                for (MysqlConn.Row row : page) {
+                    UUID id;
+                    try {
+                        id = UUID.fromString(row.getUuid());
+                    } catch (IllegalArgumentException e) {
+                        Log.w("Record {0} skipped: key is not UUID", row.getUuid());
+                        continue;
+                    }
+
+                    if (!spooled.containsKey(id)) {
+                        consumer.accept(id, row.getData());
+                    }
+                }
+            }
+        } finally {
+            reader.shutdownNow();
+        }
+
+        for (SpoolJournal.Entry entry : spooled.values()) {
+            byte[] data = entry.getData();
+            if (data != null) {
+                consumer.accept(entry.getId(), data);
+            }
+        }
+    }
+
+    @NotNull
+    private static List<MysqlConn.Row> awaitPage(@NotNull Future<List<MysqlConn.Row>> page, @NotNull String table)
+            throws IOException {
+        try {
+            return page.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to read records from table " + table, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading records from table " + table);
+        }
+    }
+
+    @Override
+    public void batched(@NotNull Runnable action) throws IOException {
+        if (!MysqlConn.batched(action, this::spoolRows)) {
+            throw new IOException(spool == null
+                    ? "Some records weren't written to MySQL"
+                    : "Some records weren't written to MySQL, they are kept in spool");
+        }
+    }
+
+    private void spoolRows(@NotNull String table, @NotNull Map<String, byte[]> rows) {
+        if (spool == null) {
+            return;
+        }
+
+        RecordType type = getTypeByTable(table);
+        for (Map.Entry<String, byte[]> row : rows.entrySet()) {
+            try {
+                spool.append(type, UUID.fromString(row.getKey()), row.getValue());
+            } catch (IOException e) {
+                Log.w(e, "Failed to spool record {0}, it will be lost", row.getKey());
+            }
+        }
+    }
+
+    @NotNull
+    private static RecordType getTypeByTable(@NotNull String table) {
+        for (RecordType type : RecordType.values()) {
+            if (type.getTable().equals(table)) {
+                return type;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown table: " + table);
+    }
+
+    private void replaySpool(@NotNull SpoolJournal spool) {
+        while (!closed) {
+            try {
+                Thread.sleep(REPLAY_INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (!spool.isEmpty() && MysqlConn.isAvailable()) {
+                replay(spool);
+            }
+        }
+    }
+
+    /**
+     * Writes spooled changes to the database in order. Stops on the first connection failure,
+     * records rejected by the database are moved to quarantine.
+     *
+     * @return true if all changes were written
+     */
+    private boolean replay(@NotNull SpoolJournal spool) {
+        List<SpoolJournal.Entry> entries = spool.getEntries();
+        int processed = 0;
+        int written = 0;
+        boolean success = true;
+
+        replay:
+        while (processed < entries.size()) {
+            SpoolJournal.Entry first = entries.get(processed);
+            int end = processed + 1;
+            // Sequential upserts to the same table are written in one batch
+            if (first.getData() != null) {
+                while (end < entries.size() && end - processed < REPLAY_BATCH_SIZE) {
+                    SpoolJournal.Entry next = entries.get(end);
+                    if (next.getData() == null || next.getType() != first.getType()) {
+                        break;
+                    }
+                    end++;
+                }
+            }
+
+            List<SpoolJournal.Entry> group = entries.subList(processed, end);
+            try {
+                write(group);
+                processed = end;
+                written += group.size();
+                continue;
+            } catch (SQLException e) {
+                if (MysqlConn.isConnectionFailure(e)) {
+                    success = false;
+                    break;
+                }
+            }
+
+            // Some entry of the group was rejected, so write them one by one to find it
+            for (SpoolJournal.Entry entry : group) {
+                try {
+                    write(Collections.singletonList(entry));
+                    written++;
+                } catch (SQLException e) {
+                    if (MysqlConn.isConnectionFailure(e) || !quarantine(entry, e)) {
+                        success = false;
+                        break replay;
+                    }
+                }
+                processed++;
+            }
+        }
+
+        try {
+            spool.removeAll(entries.subList(0, processed));
+        } catch (IOException e) {
+            Log.w(e, "Failed to truncate MySQL spool");
+        }
+
+        if (written > 0) {
+            Log.i("{0} records from spool were written to MySQL", String.valueOf(written));
+        }
+        return success;
+    }
+
+    private static void write(@NotNull List<SpoolJournal.Entry> entries) throws SQLException {
+        SpoolJournal.Entry first = entries.get(0);
+        if (first.getData() == null) {
+            MysqlConn.delete(first.getType().getTable(), first.getId().toString());
+            return;
+        }
+
+        Map<String, byte[]> rows = new LinkedHashMap<>();
+        for (SpoolJournal.Entry entry : entries) {
+            rows.put(entry.getId().toString(), entry.getData());
+        }
+        MysqlConn.upsertAll(first.getType().getTable(), rows);
+    }
+
+    /**
+     * @return false if the entry can't be quarantined and should stay in spool
+     */
+    private boolean quarantine(@NotNull SpoolJournal.Entry entry, @NotNull SQLException cause) {
+        byte[] data = entry.getData();
+        if (data == null) {
+            Log.w("Deletion of record {0} was rejected by MySQL and skipped: {1}", entry.getId(), cause.toString());
+            return true;
+        }
+
+        try {
+            quarantine(entry.getType(), entry.getId(), data, cause);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void quarantine(@NotNull RecordType type, @NotNull UUID id, @NotNull byte[] data, @NotNull SQLException cause)
+            throws IOException {
+        try {
+            quarantine.save(type, id, data);
+            Log.s("Record {0} was rejected by MySQL and moved to quarantine: {1}", id, cause.toString());
+        } catch (IOException e) {
+            Log.s("Record {0} was rejected by MySQL and can''t be moved to quarantine: {1}", id, e.toString());
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (replayer != null) {
+            replayer.interrupt();
+            try {
+                replayer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (spool != null) {
+            if (!spool.isEmpty() && !(MysqlConn.isAvailable() && replay(spool))) {
+                Log.w("{0} records stay in spool and will be written to MySQL on the next start",
+                        String.valueOf(spool.size()));
+            }
+            spool.close();
+        }
+
+        MysqlConn.stop();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.storage;
+
+import org.jetbrains.annotations.NotNull;
+import ru.endlesscode.rpginventory.mysql.MysqlConn;
+
+/**
+ * Type of records stored by {@link InventoryStorage}.
+ */
+public enum RecordType {
+    INVENTORY("inventories", ".inv", MysqlConn.TableInventory),
+    BACKPACK("backpacks", ".bp", MysqlConn.TableBackpack);
+
+    private final String folder;
+    private final String extension;
+    private final String table;
+
+    RecordType(String folder, String extension, String table) {
+        this.folder = folder;
+        this.extension = extension;
+        this.table = table;
+    }
+
+    @NotNull
+    public String getFolder() {
+        return folder;
+    }
+
+    @NotNull
+    public String getExtension() {
+        return extension;
+    }
+
+    @NotNull
+    public String getTable() {
+        return table;
+    }
+}
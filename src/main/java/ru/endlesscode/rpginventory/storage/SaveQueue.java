@@ -0,0 +1,520 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.rpginventory.utils.Log;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue for inventory and backpack saves.
+ * <p>
+ * Snapshots are taken on the main thread, encoding and writing is done by a background worker.
+ * Tasks are coalesced by key, so newer snapshot of the same record replaces the queued one.
+ * When the queue is full, or the worker is stopped, task is executed in the calling thread.
+ * <p>
+ * Records that weren't saved before the shutdown deadline are kept in the shutdown spool
+ * and written to the storage on the next start.
+ */
+public final class SaveQueue {
+
+    private static final int CAPACITY = 4096;
+    private static final int BATCH_SIZE = 100;
+    private static final int MAX_SHUTDOWN_WORKERS = 8;
+    // Small batches on shutdown, so a batch started before the deadline ends soon after it
+    private static final int SHUTDOWN_BATCH_SIZE = 20;
+    // Time to wait for started saves after the deadline
+    private static final long SHUTDOWN_GRACE_PERIOD = 5000;
+
+    private static final Object LOCK = new Object();
+    private static final Map<String, SaveTask> PENDING = new LinkedHashMap<>();
+    // Keys that are being saved. Value is null if the key is held by runLocked
+    private static final Map<String, SaveTask> IN_PROGRESS = new HashMap<>();
+
+    @Nullable
+    private static Thread worker;
+    private static boolean running = false;
+    // Failed tasks are kept here after the shutdown deadline, because they can't be retried anymore
+    @Nullable
+    private static volatile SpoolJournal shutdownSpool;
+
+    private SaveQueue() {
+    }
+
+    public static void start() {
+        synchronized (LOCK) {
+            if (running) {
+                return;
+            }
+
+            running = true;
+            worker = new Thread(SaveQueue::processTasks, "RPGInventory Save Queue");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops accepting new tasks and saves all queued tasks in parallel.
+     * Tasks that weren't started before the deadline, or failed, are kept in the shutdown spool.
+     * Started tasks are awaited for the grace period, then they are kept in the spool too and abandoned.
+     *
+     * @param timeout max time to wait for saving, in milliseconds
+     */
+    public static void shutdown(long timeout) {
+        long startTime = System.currentTimeMillis();
+        Path spoolFile = StorageManager.getShutdownSpoolFile();
+        SpoolJournal spool = openShutdownSpool(spoolFile);
+        Thread worker;
+        synchronized (LOCK) {
+            running = false;
+            shutdownSpool = spool;
+            worker = SaveQueue.worker;
+            SaveQueue.worker = null;
+            LOCK.notifyAll();
+        }
+
+        try {
+            saveRemaining(worker, startTime, timeout);
+        } finally {
+            shutdownSpool = null;
+            if (spool != null) {
+                closeShutdownSpool(spool, spoolFile);
+            }
+        }
+    }
+
+    private static void saveRemaining(@Nullable Thread worker, long startTime, long timeout) {
+        long deadline = startTime + timeout;
+        int total = size();
+        int workers = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_SHUTDOWN_WORKERS));
+        ExecutorService executor = null;
+        if (total > 0) {
+            int batchSize = Math.max(1, Math.min(SHUTDOWN_BATCH_SIZE, total / workers));
+            executor = Executors.newFixedThreadPool(workers, runnable -> {
+                Thread thread = new Thread(runnable, "RPGInventory Shutdown Save");
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (int i = 0; i < workers; i++) {
+                executor.execute(() -> drainTasks(batchSize));
+            }
+            executor.shutdown();
+        }
+
+        // Worker stops after the current batch, shutdown workers when the queue is empty
+        if (awaitWriters(worker, executor, deadline)) {
+            if (total > 0) {
+                Log.i("Saved {0} records in {1} ms using {2} threads", String.valueOf(total),
+                        String.valueOf(System.currentTimeMillis() - startTime), String.valueOf(workers));
+            }
+            return;
+        }
+
+        List<SaveTask> missed;
+        int inProgress;
+        synchronized (LOCK) {
+            missed = new ArrayList<>(PENDING.values());
+            PENDING.clear();
+            inProgress = IN_PROGRESS.size();
+        }
+
+        Log.w("{0} records weren''t saved in {1} ms, waiting for {2} records that are being saved",
+                String.valueOf(missed.size() + inProgress), String.valueOf(timeout), String.valueOf(inProgress));
+        for (SaveTask task : missed) {
+            complete(task, false);
+        }
+
+        // Writers aren't interrupted, because interrupt may break the file they are writing to
+        if (awaitWriters(worker, executor, System.currentTimeMillis() + SHUTDOWN_GRACE_PERIOD)) {
+            return;
+        }
+
+        List<SaveTask> abandoned;
+        synchronized (LOCK) {
+            abandoned = new ArrayList<>(IN_PROGRESS.values());
+        }
+        abandoned.removeIf(Objects::isNull);
+        Log.w("{0} records are still being saved after {1} ms, they are kept in spool and saving is abandoned",
+                String.valueOf(abandoned.size()), String.valueOf(System.currentTimeMillis() - startTime));
+        for (SaveTask task : abandoned) {
+            keepInSpool(task);
+        }
+    }
+
+    /**
+     * @return true if all writers finished before the deadline
+     */
+    private static boolean awaitWriters(@Nullable Thread worker, @Nullable ExecutorService executor, long deadline) {
+        try {
+            if (worker != null) {
+                // Zero means no limit for join
+                worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+                if (worker.isAlive()) {
+                    return false;
+                }
+            }
+
+            return executor == null
+                    || executor.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Nullable
+    private static SpoolJournal openShutdownSpool(@NotNull Path file) {
+        try {
+            return SpoolJournal.open(file);
+        } catch (IOException e) {
+            Log.w(e, "Failed to open {0}, records that weren''t saved on shutdown will be lost", file.getFileName());
+            return null;
+        }
+    }
+
+    private static void closeShutdownSpool(@NotNull SpoolJournal spool, @NotNull Path file) {
+        boolean isEmpty = spool.isEmpty();
+        spool.close();
+        if (!isEmpty) {
+            Log.w("{0} records were kept in {1}, they will be saved on the next start",
+                    String.valueOf(spool.size()), file.getFileName());
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            Log.w(e);
+        }
+    }
+
+    /**
+     * @return true if the task was written to the shutdown spool
+     */
+    private static boolean keepInSpool(@NotNull SaveTask task) {
+        SpoolJournal spool = shutdownSpool;
+        if (spool == null) {
+            return false;
+        }
+
+        try {
+            spool.append(task.type, task.id, task.encoder.encode());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.w(e, "Failed to keep {0} {1} in shutdown spool", task.type.name().toLowerCase(), task.id);
+            return false;
+        }
+    }
+
+    public static void submit(@NotNull String key, @NotNull SaveTask task) {
+        synchronized (LOCK) {
+            if (running && (PENDING.containsKey(key) || PENDING.size() < CAPACITY)) {
+                PENDING.put(key, task);
+                LOCK.notifyAll();
+                return;
+            }
+        }
+
+        runExclusively(key, task);
+    }
+
+    /**
+     * Saves queued task with given key immediately in the calling thread.
+     * Waits for the worker if it is saving the same record right now.
+     * Should be called before reading of the record from storage.
+     */
+    public static void flush(@NotNull String key) {
+        SaveTask task;
+        synchronized (LOCK) {
+            task = PENDING.remove(key);
+        }
+
+        if (task != null) {
+            runExclusively(key, task);
+        } else {
+            awaitKey(key);
+        }
+    }
+
+    /**
+     * Saves all queued tasks in the calling thread.
+     */
+    public static void flushAll() {
+        for (String key : pendingKeys()) {
+            flush(key);
+        }
+    }
+
+    public static boolean isPending(@NotNull String key) {
+        synchronized (LOCK) {
+            return PENDING.containsKey(key) || IN_PROGRESS.containsKey(key);
+        }
+    }
+
+    public static int size() {
+        synchronized (LOCK) {
+            return PENDING.size();
+        }
+    }
+
+    @NotNull
+    private static Set<String> pendingKeys() {
+        synchronized (LOCK) {
+            return new HashSet<>(PENDING.keySet());
+        }
+    }
+
+    private static void processTasks() {
+        while (true) {
+            List<Map.Entry<String, SaveTask>> tasks;
+            synchronized (LOCK) {
+                // Remaining tasks are saved by shutdown
+                if (!running) {
+                    return;
+                }
+
+                tasks = nextTasks(BATCH_SIZE);
+                while (tasks.isEmpty()) {
+                    try {
+                        LOCK.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    if (!running) {
+                        return;
+                    }
+                    tasks = nextTasks(BATCH_SIZE);
+                }
+            }
+
+            runBatch(tasks);
+        }
+    }
+
+    /**
+     * Saves queued tasks until the queue is empty. Used by shutdown workers.
+     */
+    private static void drainTasks(int batchSize) {
+        while (true) {
+            List<Map.Entry<String, SaveTask>> tasks;
+            synchronized (LOCK) {
+                tasks = nextTasks(batchSize);
+            }
+
+            if (tasks.isEmpty()) {
+                return;
+            }
+            runBatch(tasks);
+        }
+    }
+
+    /**
+     * Runs the tasks in one batch. Inside of the batch records may be only buffered,
+     * so callbacks of the tasks are called after the batch is written.
+     */
+    private static void runBatch(@NotNull List<Map.Entry<String, SaveTask>> tasks) {
+        List<SaveTask> written = new ArrayList<>(tasks.size());
+        List<SaveTask> failed = new ArrayList<>();
+        try {
+            // Records written by these tasks may be sent to storage together
+            StorageManager.getStorage().batched(() -> {
+                for (Map.Entry<String, SaveTask> task : tasks) {
+                    (write(task.getKey(), task.getValue()) ? written : failed).add(task.getValue());
+                }
+            });
+        } catch (IOException e) {
+            Log.w(e, "Error on saving {0} records", String.valueOf(tasks.size()));
+            failed.addAll(written);
+            written.clear();
+        } finally {
+            for (SaveTask task : written) {
+                complete(task, true);
+            }
+            for (SaveTask task : failed) {
+                complete(task, false);
+            }
+            for (Map.Entry<String, SaveTask> task : tasks) {
+                release(task.getKey());
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest tasks whose records aren't being saved by another thread.
+     */
+    @NotNull
+    private static List<Map.Entry<String, SaveTask>> nextTasks(int limit) {
+        List<Map.Entry<String, SaveTask>> tasks = new ArrayList<>();
+        Iterator<Map.Entry<String, SaveTask>> iterator = PENDING.entrySet().iterator();
+        while (iterator.hasNext() && tasks.size() < limit) {
+            Map.Entry<String, SaveTask> entry = iterator.next();
+            if (!IN_PROGRESS.containsKey(entry.getKey())) {
+                iterator.remove();
+                IN_PROGRESS.put(entry.getKey(), entry.getValue());
+                tasks.add(entry);
+            }
+        }
+
+        return tasks;
+    }
+
+    private static void runExclusively(@NotNull String key, @NotNull SaveTask task) {
+        synchronized (LOCK) {
+            waitForKey(key);
+            IN_PROGRESS.put(key, task);
+        }
+
+        try {
+            complete(task, write(key, task));
+        } finally {
+            release(key);
+        }
+    }
+
+    /**
+     * Runs the action while the record with given key can't be saved.
+     * Queued task of the record is saved after the action, so the action can check the stored record and change it.
+     */
+    public static <T> T runLocked(@NotNull String key, @NotNull LockedAction<T> action) throws IOException {
+        synchronized (LOCK) {
+            waitForKey(key);
+            IN_PROGRESS.put(key, null);
+        }
+
+        try {
+            return action.run();
+        } finally {
+            release(key);
+        }
+    }
+
+    private static void awaitKey(@NotNull String key) {
+        synchronized (LOCK) {
+            waitForKey(key);
+        }
+    }
+
+    private static void waitForKey(@NotNull String key) {
+        boolean interrupted = false;
+        while (IN_PROGRESS.containsKey(key)) {
+            try {
+                LOCK.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void release(@NotNull String key) {
+        synchronized (LOCK) {
+            IN_PROGRESS.remove(key);
+            LOCK.notifyAll();
+        }
+    }
+
+    /**
+     * @return false if the record wasn't passed to the storage
+     */
+    private static boolean write(@NotNull String key, @NotNull SaveTask task) {
+        try {
+            StorageManager.getStorage().save(task.type, task.id, task.encoder.encode());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.w(e, "Error on saving {0}", key);
+            return false;
+        }
+    }
+
+    /**
+     * Calls callback of the task. Must be called exactly once for every task.
+     */
+    private static void complete(@NotNull SaveTask task, boolean saved) {
+        if (saved) {
+            if (task.onSaved != null) {
+                task.onSaved.run();
+            }
+        } else if (!keepInSpool(task)) {
+            task.onFailure.run();
+        }
+    }
+
+    @FunctionalInterface
+    public interface LockedAction<T> {
+        T run() throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Encoder {
+        @NotNull
+        byte[] encode() throws IOException;
+    }
+
+    /**
+     * Snapshot of the record to save. Encoder is called in the background,
+     * so it should only use data of the snapshot.
+     */
+    public static final class SaveTask {
+        @NotNull
+        private final RecordType type;
+        @NotNull
+        private final UUID id;
+        @NotNull
+        private final Encoder encoder;
+        @Nullable
+        private final Runnable onSaved;
+        @NotNull
+        private final Runnable onFailure;
+
+        /**
+         * @param onSaved   called after the record was saved
+         * @param onFailure called if the record wasn't saved
+         */
+        public SaveTask(@NotNull RecordType type, @NotNull UUID id, @NotNull Encoder encoder,
+                        @Nullable Runnable onSaved, @NotNull Runnable onFailure) {
+            this.type = type;
+            this.id = id;
+            this.encoder = encoder;
+            this.onSaved = onSaved;
+            this.onFailure = onFailure;
+        }
+    }
+}
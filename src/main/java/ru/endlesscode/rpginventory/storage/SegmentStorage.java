@@ -0,0 +1,600 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.rpginventory.utils.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Stores all records in append-only segment files.
+ * <p>
+ * Every save appends a new version of the record to the active segment, deletion appends a tombstone.
+ * Index of the latest versions is kept in memory and rebuilt from segments on startup.
+ * Every record has a checksum, so a record torn by crash is detected and dropped with everything after it.
+ * Full segments are sealed and read through memory mapping.
+ * Sealed segments that mostly contain superseded records are compacted in background:
+ * actual records are copied to the active segment and the old segment is deleted.
+ */
+class SegmentStorage implements InventoryStorage {
+
+    static final String FOLDER = "segments";
+
+    private static final String EXTENSION = ".seg";
+    private static final String BROKEN_FOLDER = "broken";
+
+    private static final int MAGIC = 0x52504953; // RPIS
+    // Magic, checksum, type, flags, UUID and length of data
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 1 + 16 + 4;
+    private static final byte FLAG_TOMBSTONE = 1;
+
+    private static final long MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final double COMPACTION_THRESHOLD = 0.5;
+    private static final long COMPACTION_INTERVAL = 60 * 1000;
+
+    private final Path folder;
+    private final Object lock = new Object();
+
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<RecordType, Map<UUID, RecordLocation>> index = new EnumMap<>(RecordType.class);
+
+    private Segment active;
+    private final Thread compactor;
+    // Compactor waits on it between runs. It is never interrupted, because interrupt during
+    // write to the active segment would close its channel.
+    private final Object compactorSleep = new Object();
+    private volatile boolean closed = false;
+
+    SegmentStorage(@NotNull Path dataFolder) throws IOException {
+        this.folder = dataFolder.resolve(FOLDER);
+        Files.createDirectories(this.folder);
+        for (RecordType type : RecordType.values()) {
+            this.index.put(type, new HashMap<>());
+        }
+
+        try {
+            this.openSegments();
+        } catch (IOException e) {
+            this.closeSegments();
+            throw e;
+        }
+
+        this.compactor = new Thread(this::compactPeriodically, "RPGInventory Segment Compaction");
+        this.compactor.setDaemon(true);
+        this.compactor.start();
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "segment";
+    }
+
+    @Nullable
+    @Override
+    public byte[] load(@NotNull RecordType type, @NotNull UUID id) throws IOException {
+        RecordLocation location;
+        synchronized (lock) {
+            location = index.get(type).get(id);
+        }
+
+        return location == null ? null : location.segment.readData(location.offset);
+    }
+
+    @Override
+    public void save(@NotNull RecordType type, @NotNull UUID id, @NotNull byte[] data) throws IOException {
+        synchronized (lock) {
+            append(type, id, data);
+        }
+    }
+
+    @Override
+    public boolean exists(@NotNull RecordType type, @NotNull UUID id) {
+        synchronized (lock) {
+            return index.get(type).containsKey(id);
+        }
+    }
+
+    @Override
+    public void delete(@NotNull RecordType type, @NotNull UUID id) throws IOException {
+        synchronized (lock) {
+            if (index.get(type).containsKey(id)) {
+                append(type, id, null);
+            }
+        }
+    }
+
+    @Override
+    public void forEach(@NotNull RecordType type, @NotNull RecordConsumer consumer) throws IOException {
+        List<Map.Entry<UUID, RecordLocation>> records;
+        synchronized (lock) {
+            records = new ArrayList<>(index.get(type).entrySet());
+        }
+
+        for (Map.Entry<UUID, RecordLocation> record : records) {
+            RecordLocation location = record.getValue();
+            consumer.accept(record.getKey(), location.segment.readData(location.offset));
+        }
+    }
+
+    /**
+     * Copies the record to a separate file for manual recovery.
+     */
+    @Override
+    public boolean markBroken(@NotNull RecordType type, @NotNull UUID id) {
+        try {
+            byte[] data = load(type, id);
+            if (data == null) {
+                return false;
+            }
+
+            Path brokenFolder = folder.resolve(BROKEN_FOLDER);
+            Files.createDirectories(brokenFolder);
+            Files.write(brokenFolder.resolve(id + "-" + System.currentTimeMillis() + type.getExtension()), data);
+            return true;
+        } catch (IOException e) {
+            Log.w(e);
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (compactorSleep) {
+            closed = true;
+            compactorSleep.notifyAll();
+        }
+        try {
+            compactor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (lock) {
+            closeSegments();
+        }
+    }
+
+    private void closeSegments() {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    /**
+     * Appends new version of the record, or tombstone if data is null. Should be called under lock.
+     */
+    private void append(@NotNull RecordType type, @NotNull UUID id, @Nullable byte[] data) throws IOException {
+        if (closed) {
+            throw new IOException("Storage is closed");
+        }
+
+        ByteBuffer record = encode(type, id, data);
+        if (active.size > 0 && active.size + record.remaining() > MAX_SEGMENT_SIZE) {
+            rollSegment();
+        }
+
+        long offset = active.append(record);
+        RecordLocation previous;
+        if (data == null) {
+            previous = index.get(type).remove(id);
+        } else {
+            RecordLocation location = new RecordLocation(active, offset, HEADER_SIZE + data.length);
+            previous = index.get(type).put(id, location);
+            active.liveBytes += location.size;
+        }
+
+        if (previous != null) {
+            previous.segment.liveBytes -= previous.size;
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        active.seal();
+        int id = segments.lastKey() + 1;
+        active = Segment.create(getSegmentFile(id), id);
+        segments.put(id, active);
+    }
+
+    /**
+     * Opens all segments and rebuilds index. The last segment becomes active.
+     */
+    private void openSegments() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(folder)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.endsWith(EXTENSION)) {
+                    try {
+                        ids.add(Integer.parseInt(name.substring(0, name.length() - EXTENSION.length())));
+                    } catch (NumberFormatException e) {
+                        Log.w("File {0} skipped: name is not a segment number", name);
+                    }
+                }
+            });
+        }
+        ids.sort(null);
+
+        for (int i = 0; i < ids.size(); i++) {
+            int id = ids.get(i);
+            boolean isLast = i == ids.size() - 1;
+            Segment segment = Segment.open(getSegmentFile(id), id, isLast);
+            segments.put(id, segment);
+            long validSize = readRecords(segment);
+            if (validSize < segment.size) {
+                Log.w("Broken record found in segment {0} at {1}, next records are dropped",
+                        String.valueOf(id), String.valueOf(validSize));
+                segment.truncate(validSize);
+            }
+        }
+
+        if (segments.isEmpty()) {
+            active = Segment.create(getSegmentFile(0), 0);
+            segments.put(0, active);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+    }
+
+    /**
+     * Reads records of the segment into index.
+     *
+     * @return size of the segment part with valid records
+     */
+    private long readRecords(@NotNull Segment segment) throws IOException {
+        ByteBuffer buffer = segment.slice();
+        RecordType[] types = RecordType.values();
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int magic = buffer.getInt();
+            int checksum = buffer.getInt();
+            byte typeOrdinal = buffer.get();
+            byte flags = buffer.get();
+            UUID id = new UUID(buffer.getLong(), buffer.getLong());
+            int length = buffer.getInt();
+            if (magic != MAGIC || typeOrdinal < 0 || typeOrdinal >= types.length
+                    || length < 0 || length > buffer.remaining()) {
+                return start;
+            }
+
+            if (checksum(buffer, start, length) != checksum) {
+                return start;
+            }
+            buffer.position(buffer.position() + length);
+
+            RecordType type = types[typeOrdinal];
+            RecordLocation previous;
+            if ((flags & FLAG_TOMBSTONE) != 0) {
+                previous = index.get(type).remove(id);
+            } else {
+                RecordLocation location = new RecordLocation(segment, start, HEADER_SIZE + length);
+                previous = index.get(type).put(id, location);
+                segment.liveBytes += location.size;
+            }
+
+            if (previous != null) {
+                previous.segment.liveBytes -= previous.size;
+            }
+        }
+
+        return buffer.position();
+    }
+
+    private void compactPeriodically() {
+        while (awaitNextCompaction()) {
+            try {
+                compact();
+            } catch (IOException e) {
+                Log.w(e, "Failed to compact segments");
+            }
+        }
+    }
+
+    /**
+     * Waits for the next compaction or closing of the storage.
+     *
+     * @return false if the storage is closed
+     */
+    private boolean awaitNextCompaction() {
+        long deadline = System.currentTimeMillis() + COMPACTION_INTERVAL;
+        synchronized (compactorSleep) {
+            long remaining;
+            while (!closed && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    compactorSleep.wait(remaining);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            return !closed;
+        }
+    }
+
+    /**
+     * Compacts sealed segments that mostly contain superseded records.
+     */
+    void compact() throws IOException {
+        List<Segment> candidates = new ArrayList<>();
+        synchronized (lock) {
+            for (Segment segment : segments.values()) {
+                if (segment != active && segment.liveBytes < segment.size * COMPACTION_THRESHOLD) {
+                    candidates.add(segment);
+                }
+            }
+        }
+
+        for (Segment segment : candidates) {
+            if (closed) {
+                return;
+            }
+            compact(segment);
+        }
+    }
+
+    private void compact(@NotNull Segment segment) throws IOException {
+        RecordType[] types = RecordType.values();
+        ByteBuffer buffer = segment.slice();
+        int copied = 0;
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            buffer.position(start + 8);
+            RecordType type = types[buffer.get()];
+            boolean isTombstone = (buffer.get() & FLAG_TOMBSTONE) != 0;
+            UUID id = new UUID(buffer.getLong(), buffer.getLong());
+            int length = buffer.getInt();
+            buffer.position(buffer.position() + length);
+
+            // Each record is copied under lock, so saves of other records aren't blocked for long
+            synchronized (lock) {
+                if (closed) {
+                    return;
+                }
+
+                if (isTombstone) {
+                    // Older versions of the record may still exist in older segments
+                    if (segments.firstKey() < segment.id && !index.get(type).containsKey(id)) {
+                        append(type, id, null);
+                        copied++;
+                    }
+                    continue;
+                }
+
+                RecordLocation location = index.get(type).get(id);
+                if (location != null && location.segment == segment && location.offset == start) {
+                    append(type, id, segment.readData(start));
+                    copied++;
+                }
+            }
+        }
+
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+
+            active.force();
+            segments.remove(segment.id);
+            segment.close();
+        }
+
+        Files.deleteIfExists(getSegmentFile(segment.id));
+        Log.i("Segment {0} compacted, {1} records moved", String.valueOf(segment.id), String.valueOf(copied));
+    }
+
+    @NotNull
+    private Path getSegmentFile(int id) {
+        return folder.resolve(String.format("%08d%s", id, EXTENSION));
+    }
+
+    @NotNull
+    private static ByteBuffer encode(@NotNull RecordType type, @NotNull UUID id, @Nullable byte[] data) {
+        int length = data == null ? 0 : data.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+        buffer.putInt(MAGIC);
+        buffer.putInt(0);
+        buffer.put((byte) type.ordinal());
+        buffer.put(data == null ? FLAG_TOMBSTONE : 0);
+        buffer.putLong(id.getMostSignificantBits());
+        buffer.putLong(id.getLeastSignificantBits());
+        buffer.putInt(length);
+        if (data != null) {
+            buffer.put(data);
+        }
+
+        buffer.putInt(4, checksum(buffer, 0, length));
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Computes checksum of the record that starts at the given position.
+     * Magic and checksum itself aren't included.
+     */
+    private static int checksum(@NotNull ByteBuffer buffer, int start, int length) {
+        ByteBuffer record = buffer.duplicate();
+        record.limit(start + HEADER_SIZE + length);
+        record.position(start + 8);
+
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    private static class RecordLocation {
+        private final Segment segment;
+        // Position of the record header in the segment
+        private final long offset;
+        private final int size;
+
+        private RecordLocation(Segment segment, long offset, int size) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    private static class Segment {
+        private final int id;
+        private final FileChannel channel;
+
+        // Sealed segments aren't changed anymore and read through memory mapping
+        @Nullable
+        private volatile MappedByteBuffer mapped;
+        private volatile long size;
+        // Size of records that aren't superseded, changed under lock of storage
+        private long liveBytes = 0;
+
+        private Segment(int id, @NotNull FileChannel channel, long size) {
+            this.id = id;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        @NotNull
+        static Segment create(@NotNull Path file, int id) throws IOException {
+            FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(id, channel, 0);
+        }
+
+        @NotNull
+        static Segment open(@NotNull Path file, int id, boolean writable) throws IOException {
+            FileChannel channel = writable
+                    ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(file, StandardOpenOption.READ);
+            Segment segment = new Segment(id, channel, channel.size());
+            if (!writable) {
+                segment.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+            }
+            return segment;
+        }
+
+        /**
+         * @return position of the appended record
+         */
+        long append(@NotNull ByteBuffer record) throws IOException {
+            long position = size;
+            long offset = position;
+            while (record.hasRemaining()) {
+                offset += channel.write(record, offset);
+            }
+            size = offset;
+            return position;
+        }
+
+        void seal() throws IOException {
+            force();
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        void force() throws IOException {
+            channel.force(false);
+        }
+
+        /**
+         * Drops the end of the segment. Sealed segments aren't changed on disk, only ignore the end.
+         */
+        void truncate(long newSize) throws IOException {
+            if (mapped == null) {
+                channel.truncate(newSize);
+            }
+            size = newSize;
+        }
+
+        /**
+         * Returns contents of the segment. Buffer of the active segment isn't updated by next appends.
+         */
+        @NotNull
+        ByteBuffer slice() throws IOException {
+            MappedByteBuffer mapped = this.mapped;
+            if (mapped != null) {
+                ByteBuffer buffer = mapped.duplicate();
+                buffer.limit((int) size);
+                return buffer;
+            }
+
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        @NotNull
+        byte[] readData(long offset) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            read(header, offset);
+            int length = header.getInt(HEADER_SIZE - 4);
+
+            ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+            record.put(header);
+            read(record, offset + HEADER_SIZE);
+            if (checksum(record, 0, length) != record.getInt(4)) {
+                throw new IOException("Checksum mismatch of record at " + offset + " in segment " + id);
+            }
+
+            byte[] data = new byte[length];
+            record.position(HEADER_SIZE);
+            record.get(data);
+            return data;
+        }
+
+        private void read(@NotNull ByteBuffer target, long offset) throws IOException {
+            MappedByteBuffer mapped = this.mapped;
+            if (mapped != null) {
+                ByteBuffer source = mapped.duplicate();
+                source.position((int) offset);
+                source.limit((int) offset + target.remaining());
+                target.put(source);
+            } else {
+                long position = offset;
+                while (target.hasRemaining()) {
+                    int read = channel.read(target, position);
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of segment " + id);
+                    }
+                    position += read;
+                }
+            }
+            target.flip();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.w(e);
+            }
+        }
+    }
+}
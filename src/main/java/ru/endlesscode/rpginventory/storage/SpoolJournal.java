@@ -0,0 +1,244 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.rpginventory.utils.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Append-only journal of changes that can't be written to the storage right now.
+ * <p>
+ * Every change is written to the file before the method returns, so it survives restart of the server.
+ * The latest change of every record is also kept in memory in order of changes,
+ * so it can be read back and replayed. The file is truncated when all changes were replayed.
+ */
+final class SpoolJournal {
+
+    // Length of data in deletion entries
+    private static final int DELETED = -1;
+    // Bigger data can't be stored in the database anyway, so such length means broken entry
+    private static final int MAX_DATA_SIZE = 1 << 24;
+
+    private final FileChannel channel;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    private SpoolJournal(@NotNull FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Opens journal and reads changes stored in it. Incomplete entry at the end of file is dropped.
+     */
+    @NotNull
+    static SpoolJournal open(@NotNull Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        SpoolJournal journal = new SpoolJournal(channel);
+        try {
+            long validSize = journal.readEntries();
+            if (validSize < channel.size()) {
+                Log.w("Incomplete record found at the end of {0}, it was dropped", file.getFileName());
+                channel.truncate(validSize);
+            }
+            channel.position(validSize);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        return journal;
+    }
+
+    private long readEntries() throws IOException {
+        channel.position(0);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        long position = 0;
+        try {
+            while (true) {
+                RecordType type = RecordType.valueOf(input.readUTF());
+                UUID id = new UUID(input.readLong(), input.readLong());
+                int length = input.readInt();
+                if (length != DELETED && (length < 0 || length > MAX_DATA_SIZE)) {
+                    return position;
+                }
+
+                byte[] data = null;
+                if (length != DELETED) {
+                    data = new byte[length];
+                    input.readFully(data);
+                }
+
+                put(new Entry(type, id, data));
+                position += entrySize(type, data);
+            }
+        } catch (EOFException | UTFDataFormatException | IllegalArgumentException e) {
+            // End of the journal or an incomplete entry
+            return position;
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Appends change of the record.
+     *
+     * @param data new data of the record, or null if the record was deleted
+     */
+    synchronized void append(@NotNull RecordType type, @NotNull UUID id, @Nullable byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entrySize(type, data));
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeUTF(type.name());
+        output.writeLong(id.getMostSignificantBits());
+        output.writeLong(id.getLeastSignificantBits());
+        if (data == null) {
+            output.writeInt(DELETED);
+        } else {
+            output.writeInt(data.length);
+            output.write(data);
+        }
+
+        long start = channel.position();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // Partially written entry would break all next entries
+            channel.truncate(start);
+            channel.position(start);
+            throw e;
+        }
+
+        put(new Entry(type, id, data));
+    }
+
+    /**
+     * @return the latest change of the record, or null if there are no changes
+     */
+    @Nullable
+    synchronized Entry get(@NotNull RecordType type, @NotNull UUID id) {
+        return entries.get(key(type, id));
+    }
+
+    /**
+     * @return the latest changes of all records, in order of changes
+     */
+    @NotNull
+    synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Removes replayed changes. Changes made after replay are kept.
+     * When all changes are removed, the file is truncated.
+     */
+    synchronized void removeAll(@NotNull List<Entry> replayed) throws IOException {
+        for (Entry entry : replayed) {
+            entries.remove(key(entry.type, entry.id), entry);
+        }
+
+        if (entries.isEmpty()) {
+            channel.truncate(0);
+            channel.position(0);
+        }
+    }
+
+    synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.w(e);
+        }
+    }
+
+    private void put(@NotNull Entry entry) {
+        String key = key(entry.type, entry.id);
+        // Moves the record to the end, to keep order of changes
+        entries.remove(key);
+        entries.put(key, entry);
+    }
+
+    @NotNull
+    private static String key(@NotNull RecordType type, @NotNull UUID id) {
+        return type.name() + ":" + id;
+    }
+
+    private static int entrySize(@NotNull RecordType type, @Nullable byte[] data) {
+        // Modified UTF-8 of enum names is ASCII: 2 bytes of length + name, then UUID and data length
+        return 2 + type.name().length() + 16 + 4 + (data == null ? 0 : data.length);
+    }
+
+    static final class Entry {
+        private final RecordType type;
+        private final UUID id;
+        @Nullable
+        private final byte[] data;
+
+        private Entry(@NotNull RecordType type, @NotNull UUID id, @Nullable byte[] data) {
+            this.type = type;
+            this.id = id;
+            this.data = data;
+        }
+
+        @NotNull
+        RecordType getType() {
+            return type;
+        }
+
+        @NotNull
+        UUID getId() {
+            return id;
+        }
+
+        /**
+         * @return data of the record, or null if the record was deleted
+         */
+        @Nullable
+        byte[] getData() {
+            return data;
+        }
+    }
+}
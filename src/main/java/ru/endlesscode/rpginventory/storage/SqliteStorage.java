@@ -0,0 +1,272 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.rpginventory.utils.Log;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Stores records in embedded single-file SQLite database.
+ * <p>
+ * SQLite driver is shipped with the server, so it doesn't need to be installed.
+ */
+class SqliteStorage implements InventoryStorage {
+
+    private static final String DB_URL = "jdbc:sqlite:{0}";
+    private static final String CREATE_SQL = "CREATE TABLE IF NOT EXISTS `{0}` (`uuid` VARCHAR(36) NOT NULL PRIMARY KEY, `data` BLOB NOT NULL, `updatetime` INTEGER NOT NULL)";
+    private static final String UPSERT_SQL = "INSERT OR REPLACE INTO `{0}` (`uuid`, `data`, `updatetime`) VALUES (?, ?, ?)";
+    private static final String GET_SQL = "SELECT `data` FROM `{0}` WHERE `uuid` = ?";
+    private static final String EXISTS_SQL = "SELECT 1 FROM `{0}` WHERE `uuid` = ?";
+    private static final String GET_PAGE_SQL = "SELECT `uuid`, `data` FROM `{0}` WHERE `uuid` > ? ORDER BY `uuid` LIMIT ?";
+    private static final String DELETE_SQL = "DELETE FROM `{0}` WHERE `uuid` = ?";
+
+    private static final int PAGE_SIZE = 256;
+
+    private final Path file;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    // Records saved by the current thread inside of batched action
+    private final ThreadLocal<Map<RecordType, Map<UUID, byte[]>>> batch = new ThreadLocal<>();
+
+    SqliteStorage(@NotNull Path file) throws IOException {
+        this.file = file;
+        try {
+            Class.forName("org.sqlite.JDBC");
+            this.connection = DriverManager.getConnection(DB_URL.replace("{0}", file.toAbsolutePath().toString()));
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA journal_mode=WAL");
+                stmt.execute("PRAGMA synchronous=NORMAL");
+                for (RecordType type : RecordType.values()) {
+                    stmt.execute(CREATE_SQL.replace("{0}", type.getTable()));
+                }
+            }
+        } catch (ClassNotFoundException | SQLException e) {
+            throw new IOException("Failed to open SQLite database " + file, e);
+        }
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "sqlite";
+    }
+
+    @Nullable
+    @Override
+    public synchronized byte[] load(@NotNull RecordType type, @NotNull UUID id) throws IOException {
+        try {
+            PreparedStatement stmt = prepare(GET_SQL, type);
+            stmt.setString(1, id.toString());
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next() ? resultSet.getBytes(1) : null;
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to load " + type.name().toLowerCase() + " " + id, e);
+        }
+    }
+
+    @Override
+    public void save(@NotNull RecordType type, @NotNull UUID id, @NotNull byte[] data) throws IOException {
+        Map<RecordType, Map<UUID, byte[]>> batch = this.batch.get();
+        if (batch != null) {
+            batch.computeIfAbsent(type, key -> new LinkedHashMap<>()).put(id, data);
+            return;
+        }
+
+        Map<RecordType, Map<UUID, byte[]>> records = new EnumMap<>(RecordType.class);
+        records.put(type, Collections.singletonMap(id, data));
+        try {
+            write(records);
+        } catch (SQLException e) {
+            throw new IOException("Failed to save " + type.name().toLowerCase() + " " + id, e);
+        }
+    }
+
+    @Override
+    public synchronized boolean exists(@NotNull RecordType type, @NotNull UUID id) throws IOException {
+        try {
+            PreparedStatement stmt = prepare(EXISTS_SQL, type);
+            stmt.setString(1, id.toString());
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to check " + type.name().toLowerCase() + " " + id, e);
+        }
+    }
+
+    @Override
+    public synchronized void delete(@NotNull RecordType type, @NotNull UUID id) throws IOException {
+        try {
+            PreparedStatement stmt = prepare(DELETE_SQL, type);
+            stmt.setString(1, id.toString());
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new IOException("Failed to delete " + type.name().toLowerCase() + " " + id, e);
+        }
+    }
+
+    /**
+     * Reads records page by page. Storage is locked only while a page is read,
+     * so the consumer doesn't block loads and saves of other threads.
+     */
+    @Override
+    public void forEach(@NotNull RecordType type, @NotNull RecordConsumer consumer) throws IOException {
+        String lastKey = "";
+        Map<String, byte[]> page;
+        do {
+            page = readPage(type, lastKey);
+            for (Map.Entry<String, byte[]> record : page.entrySet()) {
+                lastKey = record.getKey();
+                UUID id;
+                try {
+                    id = UUID.fromString(lastKey);
+                } catch (IllegalArgumentException e) {
+                    Log.w("Record {0} skipped: key is not UUID", lastKey);
+                    continue;
+                }
+
+                consumer.accept(id, record.getValue());
+            }
+        } while (page.size() == PAGE_SIZE);
+    }
+
+    /**
+     * @return records with key greater than the given one, ordered by key
+     */
+    @NotNull
+    private synchronized Map<String, byte[]> readPage(@NotNull RecordType type, @NotNull String afterKey)
+            throws IOException {
+        try {
+            PreparedStatement stmt = prepare(GET_PAGE_SQL, type);
+            stmt.setString(1, afterKey);
+            stmt.setInt(2, PAGE_SIZE);
+
+            Map<String, byte[]> page = new LinkedHashMap<>();
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    page.put(resultSet.getString(1), resultSet.getBytes(2));
+                }
+            }
+            return page;
+        } catch (SQLException e) {
+            throw new IOException("Failed to read records from table " + type.getTable(), e);
+        }
+    }
+
+    /**
+     * Records saved by the action are written in a single transaction.
+     */
+    @Override
+    public void batched(@NotNull Runnable action) throws IOException {
+        if (batch.get() != null) {
+            action.run();
+            return;
+        }
+
+        Map<RecordType, Map<UUID, byte[]>> records = new EnumMap<>(RecordType.class);
+        batch.set(records);
+        try {
+            action.run();
+        } finally {
+            batch.remove();
+        }
+
+        try {
+            write(records);
+        } catch (SQLException e) {
+            int count = records.values().stream().mapToInt(Map::size).sum();
+            throw new IOException("Failed to save " + count + " records to " + file.getFileName(), e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (PreparedStatement stmt : statements.values()) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                Log.d(e);
+            }
+        }
+        statements.clear();
+
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            Log.w(e, "Failed to close {0}", file.getFileName().toString());
+        }
+    }
+
+    private synchronized void write(@NotNull Map<RecordType, Map<UUID, byte[]>> records) throws SQLException {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        connection.setAutoCommit(false);
+        try {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<RecordType, Map<UUID, byte[]>> entry : records.entrySet()) {
+                PreparedStatement stmt = prepare(UPSERT_SQL, entry.getKey());
+                for (Map.Entry<UUID, byte[]> record : entry.getValue().entrySet()) {
+                    stmt.setString(1, record.getKey().toString());
+                    stmt.setBytes(2, record.getValue());
+                    stmt.setLong(3, now);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    @NotNull
+    private PreparedStatement prepare(@NotNull String sql, @NotNull RecordType type) throws SQLException {
+        String query = sql.replace("{0}", type.getTable());
+        PreparedStatement stmt = statements.get(query);
+        if (stmt == null) {
+            stmt = connection.prepareStatement(query);
+            statements.put(query, stmt);
+        }
+
+        return stmt;
+    }
+}
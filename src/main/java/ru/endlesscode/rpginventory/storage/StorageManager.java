@@ -0,0 +1,180 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.rpginventory.RPGInventory;
+import ru.endlesscode.rpginventory.misc.config.Config;
+import ru.endlesscode.rpginventory.mysql.MysqlConn;
+import ru.endlesscode.rpginventory.utils.Log;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Holds the storage of inventories and backpacks selected in config.
+ */
+public final class StorageManager {
+
+    private static final String SQLITE_FILE = "storage.db";
+    private static final String MYSQL_SPOOL_FILE = "mysql-spool.dat";
+    private static final String MYSQL_QUARANTINE_FOLDER = "mysql-quarantine";
+    private static final String SHUTDOWN_SPOOL_FILE = "shutdown-spool.dat";
+
+    @Nullable
+    private static InventoryStorage storage = null;
+
+    private StorageManager() {
+    }
+
+    /**
+     * Opens the storage selected in config. Other storage is never used instead of the selected one,
+     * because data saved there would be lost when the selected storage is available again.
+     *
+     * @return true if the storage was opened, otherwise the plugin should be disabled
+     */
+    public static boolean init(@NotNull RPGInventory instance) {
+        close();
+        try {
+            storage = createStorage(instance);
+        } catch (IOException e) {
+            Log.w(e, "Failed to open storage");
+            Log.s("Storage isn''t available, inventories can''t be loaded. Check the storage and restart the server.");
+            return false;
+        }
+
+        Log.i("Storage: {0}", storage.getName());
+        try {
+            saveShutdownSpool(storage, getShutdownSpoolFile());
+        } catch (IOException e) {
+            Log.w(e, "Failed to save records kept on the last shutdown");
+            Log.s("Records kept in {0} aren''t saved, so inventories can''t be loaded. "
+                    + "Check the storage and restart the server.", SHUTDOWN_SPOOL_FILE);
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Saves records that weren't saved on the last shutdown. Must be done before any record is loaded.
+     */
+    private static void saveShutdownSpool(@NotNull InventoryStorage storage, @NotNull Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        // Records are saved again if it fails in the middle, saves are idempotent
+        SpoolJournal spool = SpoolJournal.open(file);
+        try {
+            for (SpoolJournal.Entry entry : spool.getEntries()) {
+                byte[] data = entry.getData();
+                if (data == null) {
+                    storage.delete(entry.getType(), entry.getId());
+                } else {
+                    storage.save(entry.getType(), entry.getId(), data);
+                }
+            }
+        } finally {
+            spool.close();
+        }
+
+        Files.delete(file);
+        Log.i("Records kept on the last shutdown were saved");
+    }
+
+    @NotNull
+    static Path getShutdownSpoolFile() {
+        return RPGInventory.getInstance().getDataPath().resolve(SHUTDOWN_SPOOL_FILE);
+    }
+
+    @NotNull
+    private static InventoryStorage createStorage(@NotNull RPGInventory instance) throws IOException {
+        if (instance.onMysql()) {
+            return createMysqlStorage(instance);
+        }
+
+        String type = Config.getConfig().getString("storage.type", "file");
+        switch (type.toLowerCase()) {
+            case "file":
+                return new FileStorage(instance.getDataPath());
+            case "sqlite":
+                return new SqliteStorage(instance.getDataPath().resolve(SQLITE_FILE));
+            case "segment":
+                return new SegmentStorage(instance.getDataPath());
+            default:
+                throw new IOException("Unknown storage type '" + type + "'. Available types: file, sqlite, segment");
+        }
+    }
+
+    /**
+     * Opens storage of the given type. Returns current storage if it has the same type.
+     *
+     * @return opened storage, or null if type is unknown
+     */
+    @Nullable
+    static InventoryStorage openStorage(@NotNull String type) throws IOException {
+        InventoryStorage current = getStorage();
+        if (current.getName().equalsIgnoreCase(type)) {
+            return current;
+        }
+
+        RPGInventory instance = RPGInventory.getInstance();
+        switch (type.toLowerCase()) {
+            case "file":
+                return new FileStorage(instance.getDataPath());
+            case "sqlite":
+                return new SqliteStorage(instance.getDataPath().resolve(SQLITE_FILE));
+            case "segment":
+                return new SegmentStorage(instance.getDataPath());
+            case "mysql":
+                MysqlStorage mysqlStorage = createMysqlStorage(instance);
+                if (!MysqlConn.isConnected()) {
+                    throw new IOException("MySQL is not connected");
+                }
+                return mysqlStorage;
+            default:
+                return null;
+        }
+    }
+
+    @NotNull
+    private static MysqlStorage createMysqlStorage(@NotNull RPGInventory instance) {
+        Path dataPath = instance.getDataPath();
+        return new MysqlStorage(dataPath.resolve(MYSQL_SPOOL_FILE), dataPath.resolve(MYSQL_QUARANTINE_FOLDER));
+    }
+
+    @NotNull
+    public static InventoryStorage getStorage() {
+        if (storage == null) {
+            throw new IllegalStateException("Storage is not initialized");
+        }
+
+        return storage;
+    }
+
+    public static void close() {
+        if (storage != null) {
+            storage.close();
+            storage = null;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ru.endlesscode.rpginventory.storage;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.rpginventory.RPGInventory;
+import ru.endlesscode.rpginventory.misc.serialization.Serialization;
+import ru.endlesscode.rpginventory.utils.Log;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies all records from one storage to another.
+ * <p>
+ * Records are streamed from the source storage, decoded and converted by a pool of workers
+ * and written to the target storage in batches by a single writer.
+ * Written records are appended to the progress file, so interrupted migration is resumed from the same place.
+ */
+public final class StorageMigration {
+
+    private static final int BATCH_SIZE = 500;
+    private static final int QUEUE_PER_WORKER = 64;
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+    private static final long CANCEL_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    // Marks the end of records for the writer
+    private static final Record END = new Record(RecordType.INVENTORY, new UUID(0, 0), new byte[0]);
+
+    @Nullable
+    private static volatile StorageMigration current = null;
+
+    private final String from;
+    private final String to;
+    private final boolean convert;
+    private final Path progressFile;
+
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong converted = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile boolean cancelled = false;
+    private long startTime;
+    private long lastReport;
+
+    private StorageMigration(@NotNull String from, @NotNull String to, boolean convert) {
+        this.from = from.toLowerCase();
+        this.to = to.toLowerCase();
+        this.convert = convert;
+        this.progressFile = RPGInventory.getInstance().getDataPath()
+                .resolve(String.format("migration-%s-%s.progress", this.from, this.to));
+    }
+
+    /**
+     * Starts migration in a separate thread.
+     *
+     * @return false if another migration is already running
+     */
+    public static synchronized boolean start(@NotNull String from, @NotNull String to, boolean convert) {
+        if (current != null) {
+            return false;
+        }
+
+        StorageMigration migration = new StorageMigration(from, to, convert);
+        current = migration;
+
+        Thread thread = new Thread(migration::run, "RPGInventory Migration");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    public static boolean isRunning() {
+        return current != null;
+    }
+
+    /**
+     * Stops running migration and waits until already read records will be written.
+     * It can be resumed later.
+     */
+    public static void cancel() {
+        StorageMigration migration = current;
+        if (migration == null) {
+            return;
+        }
+
+        migration.cancelled = true;
+        long deadline = System.currentTimeMillis() + CANCEL_TIMEOUT;
+        synchronized (StorageMigration.class) {
+            while (current == migration && System.currentTimeMillis() < deadline) {
+                try {
+                    StorageMigration.class.wait(deadline - System.currentTimeMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static synchronized void finish() {
+        current = null;
+        StorageMigration.class.notifyAll();
+    }
+
+    private void run() {
+        InventoryStorage active = StorageManager.getStorage();
+        InventoryStorage source = null;
+        InventoryStorage target = null;
+        try {
+            source = openStorage(from);
+            target = openStorage(to);
+            if (source != null && target != null) {
+                migrate(source, target);
+            }
+        } catch (Exception e) {
+            Log.w(e, "Migration from {0} to {1} failed. Run it again to resume", from, to);
+        } finally {
+            closeStorage(source, active);
+            closeStorage(target, active);
+            finish();
+        }
+    }
+
+    @Nullable
+    private InventoryStorage openStorage(@NotNull String type) throws IOException {
+        InventoryStorage storage = StorageManager.openStorage(type);
+        if (storage == null) {
+            Log.w("Unknown storage type ''{0}''. Available types: file, sqlite, segment, mysql", type);
+        }
+
+        return storage;
+    }
+
+    private static void closeStorage(@Nullable InventoryStorage storage, @NotNull InventoryStorage active) {
+        if (storage != null && storage != active) {
+            storage.close();
+        }
+    }
+
+    private void migrate(@NotNull InventoryStorage source, @NotNull InventoryStorage target) throws Exception {
+        // Queued saves should get to the storage before it will be read
+        SaveQueue.flushAll();
+
+        Set<String> done = readProgress();
+        if (!done.isEmpty()) {
+            Log.i("Resuming migration from {0} to {1}; already migrated: {2}", from, to, done.size());
+        } else {
+            Log.i("Migration from {0} to {1} started", from, to);
+        }
+
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        BlockingQueue<Record> writeQueue = new ArrayBlockingQueue<>(BATCH_SIZE * 2);
+        // Reader runs the task by itself when workers are busy, so records aren't accumulated in memory
+        ExecutorService executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workers * QUEUE_PER_WORKER), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        startTime = System.currentTimeMillis();
+        lastReport = startTime;
+        Thread writer = new Thread(() -> writeRecords(target, writeQueue), "RPGInventory Migration Writer");
+        writer.start();
+
+        try {
+            for (RecordType type : RecordType.values()) {
+                source.forEach(type, (id, data) -> {
+                    if (cancelled) {
+                        throw new IOException("Migration cancelled");
+                    }
+
+                    read.incrementAndGet();
+                    if (done.contains(progressKey(type, id))) {
+                        skipped.incrementAndGet();
+                        return;
+                    }
+
+                    executor.execute(() -> enqueue(writeQueue, prepareRecord(type, id, data)));
+                });
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            enqueue(writeQueue, END);
+            writer.join();
+        }
+
+        if (cancelled) {
+            throw new IOException("Migration cancelled");
+        }
+
+        report("Migration finished");
+        if (failed.get() == 0) {
+            Files.deleteIfExists(progressFile);
+        } else {
+            Log.w("Some records weren''t migrated, see errors above. Run migration again to retry them");
+        }
+    }
+
+    @NotNull
+    private Record prepareRecord(@NotNull RecordType type, @NotNull UUID id, @NotNull byte[] data) {
+        if (!convert) {
+            return new Record(type, id, data);
+        }
+
+        try {
+            byte[] convertedData = type == RecordType.INVENTORY
+                    ? Serialization.convertInventory(data)
+                    : Serialization.convertBackpack(id.toString(), data);
+            if (convertedData == null) {
+                return new Record(type, id, data);
+            }
+
+            converted.incrementAndGet();
+            return new Record(type, id, convertedData);
+        } catch (IOException | InvalidConfigurationException | RuntimeException e) {
+            Log.w(e, "Can''t convert {0} {1}, it will be copied as is", type.getFolder(), id);
+            return new Record(type, id, data);
+        }
+    }
+
+    private static void enqueue(@NotNull BlockingQueue<Record> queue, @NotNull Record record) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(record);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeRecords(@NotNull InventoryStorage target, @NotNull BlockingQueue<Record> queue) {
+        try (BufferedWriter progress = Files.newBufferedWriter(progressFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            List<Record> batch = new ArrayList<>(BATCH_SIZE);
+            boolean finished = false;
+            while (!finished) {
+                Record record = queue.poll(1, TimeUnit.SECONDS);
+                while (record != null) {
+                    if (record == END) {
+                        finished = true;
+                        break;
+                    }
+
+                    batch.add(record);
+                    if (batch.size() >= BATCH_SIZE) {
+                        break;
+                    }
+                    record = queue.poll();
+                }
+
+                writeBatch(target, batch, progress);
+                batch.clear();
+                reportIfNeeded();
+            }
+        } catch (Exception e) {
+            Log.w(e, "Migration writer stopped");
+            cancelled = true;
+            // Reader and workers shouldn't stuck on the full queue
+            skipRemaining(queue);
+        }
+    }
+
+    private static void skipRemaining(@NotNull BlockingQueue<Record> queue) {
+        while (true) {
+            try {
+                if (queue.take() == END) {
+                    return;
+                }
+            } catch (InterruptedException ignored) {
+                // Reader will send the end marker anyway
+            }
+        }
+    }
+
+    private void writeBatch(@NotNull InventoryStorage target, @NotNull List<Record> batch,
+                            @NotNull BufferedWriter progress) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            target.batched(() -> {
+                for (Record record : batch) {
+                    try {
+                        target.save(record.type, record.id, record.data);
+                        record.saved = true;
+                    } catch (IOException e) {
+                        Log.w(e, "Failed to migrate {0} {1}", record.type.getFolder(), record.id);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            // Records are saved only when the batch is written, so none of them is migrated
+            Log.w(e, "Failed to migrate batch of {0} records", String.valueOf(batch.size()));
+            for (Record record : batch) {
+                record.saved = false;
+            }
+        }
+
+        for (Record record : batch) {
+            if (record.saved) {
+                progress.write(progressKey(record.type, record.id));
+                progress.newLine();
+            }
+        }
+        progress.flush();
+
+        for (Record record : batch) {
+            if (record.saved) {
+                written.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+        }
+    }
+
+    @NotNull
+    private Set<String> readProgress() throws IOException {
+        if (!Files.exists(progressFile)) {
+            return new HashSet<>();
+        }
+
+        return new HashSet<>(Files.readAllLines(progressFile, StandardCharsets.UTF_8));
+    }
+
+    @NotNull
+    private static String progressKey(@NotNull RecordType type, @NotNull UUID id) {
+        return type.name() + ":" + id;
+    }
+
+    private void reportIfNeeded() {
+        long now = System.currentTimeMillis();
+        if (now - lastReport >= REPORT_INTERVAL) {
+            lastReport = now;
+            report("Migration in progress");
+        }
+    }
+
+    private void report(@NotNull String status) {
+        long seconds = Math.max(1, (System.currentTimeMillis() - startTime) / 1000);
+        Log.i("{0}: read {1}, written {2}, converted {3}, skipped {4}, failed {5}; {6} records/s",
+                status, read.get(), written.get(), converted.get(), skipped.get(), failed.get(), written.get() / seconds);
+    }
+
+    private static final class Record {
+        private final RecordType type;
+        private final UUID id;
+        private final byte[] data;
+        private boolean saved = false;
+
+        private Record(@NotNull RecordType type, @NotNull UUID id, @NotNull byte[] data) {
+            this.type = type;
+            this.id = id;
+            this.data = data;
+        }
+    }
+}
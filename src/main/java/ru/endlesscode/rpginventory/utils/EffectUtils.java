@@ -53,9 +53,7 @@ public class EffectUtils {
     }
 
     private static void playParticlesToAll(Particle particle, int particleNum, @NotNull Location location, @NotNull Vector direction, double distance) {
-        for (Player player : LocationUtils.getNearbyPlayers(location, distance)) {
-            playParticles(player, particle, particleNum, location, direction);
-        }
+        NearbyPlayers.forEach(location, distance, player -> playParticles(player, particle, particleNum, location, direction));
     }
 
     private static void playParticles(Player player, Particle particle, int particleNum, Location location, Vector direction) {
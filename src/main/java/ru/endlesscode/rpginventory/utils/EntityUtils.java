@@ -23,14 +23,17 @@ import org.bukkit.Location;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import ru.endlesscode.inspector.report.Reporter;
 import ru.endlesscode.rpginventory.RPGInventory;
+import ru.endlesscode.rpginventory.compat.NmsHandles;
 import ru.endlesscode.rpginventory.inventory.InventoryManager;
 import ru.endlesscode.rpginventory.pet.PetManager;
 import ru.endlesscode.rpginventory.pet.PetType;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 
 /**
  * Created by OsipXD on 02.12.2015
@@ -39,22 +42,32 @@ import java.lang.reflect.Method;
  */
 public class EntityUtils {
 
-    private static Method craftEntity_getHandle;
-    private static Method navigationAbstract_a;
-    private static Method entityInsentient_getNavigation;
-    private static final Class<?> entityInsentientClass = MinecraftReflection.getMinecraftClass("EntityInsentient");
+    // (LivingEntity entity, double x, double y, double z, double speed) -> void
+    @Nullable
+    private static final MethodHandle moveTo = createMoveTo();
 
     private static final Reporter reporter = RPGInventory.getInstance().getReporter();
 
-    static {
-        try {
-            craftEntity_getHandle = MinecraftReflection.getCraftEntityClass().getDeclaredMethod("getHandle");
-            entityInsentient_getNavigation = entityInsentientClass.getDeclaredMethod("getNavigation");
-            navigationAbstract_a = MinecraftReflection.getMinecraftClass("NavigationAbstract")
-                    .getDeclaredMethod("a", double.class, double.class, double.class, double.class);
-        } catch (NoSuchMethodException e) {
-            reporter.report("Error on EntityUtils initialization", e);
+    /**
+     * Binds {@code ((EntityInsentient) craftEntity.getHandle()).getNavigation().a(x, y, z, speed)}.
+     */
+    @Nullable
+    private static MethodHandle createMoveTo() {
+        Class<?> entityInsentientClass = NmsHandles.findMinecraftClass("EntityInsentient");
+        MethodHandle getHandle = NmsHandles.findMethod(MinecraftReflection.getCraftEntityClass(), "getHandle");
+        MethodHandle getNavigation = NmsHandles.findMethod(entityInsentientClass, "getNavigation");
+        MethodHandle navigate = NmsHandles.findMethod(NmsHandles.findMinecraftClass("NavigationAbstract"),
+                "a", double.class, double.class, double.class, double.class);
+        if (entityInsentientClass == null || getHandle == null || getNavigation == null || navigate == null) {
+            Log.w("Pets will not follow their owners on this server version");
+            return null;
         }
+
+        getHandle = getHandle.asType(MethodType.methodType(entityInsentientClass, getHandle.type().parameterType(0)));
+        MethodHandle navigation = MethodHandles.filterReturnValue(getHandle, getNavigation)
+                .asType(MethodType.methodType(navigate.type().parameterType(0), getHandle.type().parameterType(0)));
+        return MethodHandles.filterArguments(navigate, 0, navigation).asType(MethodType.methodType(
+                void.class, LivingEntity.class, double.class, double.class, double.class, double.class));
     }
 
     public static void goPetToPlayer(@NotNull final Player player, @NotNull final LivingEntity entity) {
@@ -79,12 +92,16 @@ public class EntityUtils {
         PetType petType = PetManager.getPetFromEntity(entity, player);
         double speedModifier = petType == null ? 1.0 : 0.4 / petType.getSpeed();
 
+        if (moveTo == null) {
+            return;
+        }
+
         try {
-            Object insentient = entityInsentientClass.cast(craftEntity_getHandle.invoke(entity));
-            Object navigation = entityInsentient_getNavigation.invoke(insentient);
-            navigationAbstract_a.invoke(navigation, target.getX(), target.getY(), target.getZ(), speedModifier);
-        } catch (IllegalAccessException | InvocationTargetException e) {
+            moveTo.invokeExact(entity, target.getX(), target.getY(), target.getZ(), speedModifier);
+        } catch (Exception e) {
             reporter.report("Error on going pet to player", e);
+        } catch (Throwable t) {
+            throw t instanceof Error ? (Error) t : new IllegalStateException(t);
         }
     }
 }
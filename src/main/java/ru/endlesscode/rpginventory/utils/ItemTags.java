@@ -0,0 +1,102 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ru.endlesscode.rpginventory.utils;
+
+import com.comphenix.protocol.utility.MinecraftReflection;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.endlesscode.rpginventory.compat.NmsHandles;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * Reads string tags directly from the NBT of CraftItemStack without copying the item
+ * and wrapping its NBT with ProtocolLib.
+ * <p>
+ * Method handles are resolved once. If it isn't possible on the current server version,
+ * {@link #isSupported(ItemStack)} always returns false and the slow way should be used.
+ */
+final class ItemTags {
+
+    @Nullable
+    private static final Class<?> CRAFT_ITEM_STACK;
+    @Nullable
+    private static final MethodHandle GET_HANDLE;
+    @Nullable
+    private static final MethodHandle GET_TAG;
+    @Nullable
+    private static final MethodHandle HAS_KEY;
+    @Nullable
+    private static final MethodHandle GET_STRING;
+
+    static {
+        Class<?> craftItemStack = null;
+        Class<?> nbtCompound = null;
+        try {
+            craftItemStack = MinecraftReflection.getCraftItemStackClass();
+            nbtCompound = MinecraftReflection.getNBTCompoundClass();
+        } catch (RuntimeException e) {
+            Log.w("Fast reading of item tags isn''t available: {0}", e.toString());
+        }
+
+        GET_HANDLE = NmsHandles.findGetter(craftItemStack, "handle");
+        GET_TAG = craftItemStack == null ? null : NmsHandles.findMethod(MinecraftReflection.getItemStackClass(), "getTag");
+        HAS_KEY = NmsHandles.findMethod(nbtCompound, "hasKey", String.class);
+        GET_STRING = NmsHandles.findMethod(nbtCompound, "getString", String.class);
+
+        boolean supported = GET_HANDLE != null && GET_TAG != null && HAS_KEY != null && GET_STRING != null;
+        CRAFT_ITEM_STACK = supported ? craftItemStack : null;
+    }
+
+    private ItemTags() {
+    }
+
+    static boolean isSupported(@NotNull ItemStack item) {
+        return CRAFT_ITEM_STACK != null && CRAFT_ITEM_STACK.isInstance(item);
+    }
+
+    /**
+     * Returns NBT compound of the item. The item should be {@link #isSupported(ItemStack) supported}.
+     *
+     * @return compound, or null if item has no tags
+     */
+    @Nullable
+    static Object getCompound(@NotNull ItemStack item) {
+        try {
+            Object handle = GET_HANDLE.invoke(item);
+            return handle == null ? null : GET_TAG.invoke(handle);
+        } catch (Throwable t) {
+            throw new IllegalStateException("Failed to get NBT of item", t);
+        }
+    }
+
+    /**
+     * @return value of the tag, or null if compound doesn't contain it
+     */
+    @Nullable
+    static String getString(@NotNull Object compound, @NotNull String key) {
+        try {
+            return (boolean) HAS_KEY.invoke(compound, key) ? (String) GET_STRING.invoke(compound, key) : null;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Failed to read tag " + key, t);
+        }
+    }
+}
@@ -75,6 +75,21 @@ public class ItemUtils {
     @NotNull
     @SuppressWarnings("WeakerAccess")
     public static String getTag(@NotNull ItemStack item, @NotNull String tag, @NotNull String defaultValue) {
+        if (isEmpty(item)) {
+            return "";
+        }
+
+        // Item without meta has no tags. Also prevents creation of empty tag on CraftItemStack
+        if (!item.hasItemMeta()) {
+            return defaultValue;
+        }
+
+        if (ItemTags.isSupported(item)) {
+            Object compound = ItemTags.getCompound(item);
+            String value = compound == null ? null : ItemTags.getString(compound, tag);
+            return value == null ? defaultValue : value;
+        }
+
         final ItemStack bukkitItem = toBukkitItemStack(item);
         if (isEmpty(bukkitItem)) {
             return "";
@@ -90,7 +105,13 @@ public class ItemUtils {
             return false;
         }
 
-        ItemStack item = toBukkitItemStack(originalItem.clone());
+        if (ItemTags.isSupported(originalItem)) {
+            Object compound = ItemTags.getCompound(originalItem);
+            return compound != null && ItemTags.getString(compound, tag) != null;
+        }
+
+        // Not a CraftItemStack, so it is copied on conversion
+        ItemStack item = toBukkitItemStack(originalItem);
         if (isEmpty(item)) {
             return false;
         }
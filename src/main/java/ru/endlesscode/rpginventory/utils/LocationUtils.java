@@ -19,6 +19,7 @@
 package ru.endlesscode.rpginventory.utils;
 
 import org.bukkit.Location;
+import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
@@ -28,9 +29,13 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by OsipXD on 28.08.2015
@@ -38,42 +43,94 @@ import java.util.Random;
  * All rights reserved 2014 - 2016 © «EndlessCode Group»
  */
 public class LocationUtils {
-    private static final List<String> UNSAFE_BLOCK_MATERIALS = Arrays.asList(
+    private static final Set<Material> UNSAFE_BLOCK_MATERIALS = materials(
             "LADDER", "LAVA", "STATIONARY_LAVA", "LEGACY_STATIONARY_LAVA", "CACTUS", "GREEN_CACTUS", "FIRE"
     );
+    private static final Set<Material> AIR_MATERIALS = materials("AIR", "CAVE_AIR", "VOID_AIR");
+    private static final Set<Material> LIQUID_MATERIALS = materials(
+            "WATER", "STATIONARY_WATER", "LAVA", "STATIONARY_LAVA"
+    );
     private static final Random RANDOM = new Random();
 
+    // Offsets {x, y, z} sorted from nearest to farthest, by radius
+    private static final Map<Integer, int[]> NEAREST_OFFSETS = new ConcurrentHashMap<>();
+
     @Deprecated
     public static Location getLocationNearPlayer(Player player, int radius) {
         return LocationUtils.getLocationNearPoint(player.getLocation(), radius);
     }
 
+    /**
+     * Finds the nearest safe location to stand on around the given point.
+     * If there is no such location, center of the point's block is returned.
+     */
     public static Location getLocationNearPoint(Location location, int radius) {
-        Block playerBlock = location.getBlock();
-        List<Location> availableLocations = new ArrayList<>();
+        Location safeLocation = findLocationNearPoint(location, radius);
+        return safeLocation != null ? safeLocation : getBlockCenter(location.getBlock().getLocation());
+    }
 
+    @Nullable
+    private static Location findLocationNearPoint(@NotNull Location location, int radius) {
         World world = location.getWorld();
-        for (int x = playerBlock.getX() - radius; x < playerBlock.getX() + radius; x++) {
-            for (int y = playerBlock.getY() - radius; y < playerBlock.getY() + radius; y++) {
-                for (int z = playerBlock.getZ() - radius; z < playerBlock.getZ() + radius; z++) {
-                    Location loc = getBlockCenter(new Location(world, x, y, z));
-                    if (!loc.getBlock().isEmpty()) {
-                        continue;
-                    }
-                    Block underBlock = loc.clone().subtract(0, 1, 0).getBlock();
-                    if (!underBlock.isEmpty() && !underBlock.isLiquid() && LocationUtils.isSafeLocation(underBlock.getLocation())) {
-                        loc.setYaw(-180 + LocationUtils.RANDOM.nextFloat() * 360);
-                        availableLocations.add(loc);
+        int baseX = location.getBlockX();
+        int baseY = location.getBlockY();
+        int baseZ = location.getBlockZ();
+        int maxHeight = world.getMaxHeight();
+
+        int[] offsets = NEAREST_OFFSETS.computeIfAbsent(radius, LocationUtils::computeNearestOffsets);
+        for (int i = 0; i < offsets.length; i += 3) {
+            int x = baseX + offsets[i];
+            int y = baseY + offsets[i + 1];
+            int z = baseZ + offsets[i + 2];
+            if (y < 1 || y >= maxHeight) {
+                continue;
+            }
+
+            if (!AIR_MATERIALS.contains(world.getBlockAt(x, y, z).getType())) {
+                continue;
+            }
+
+            if (isSafeGround(world.getBlockAt(x, y - 1, z).getType())) {
+                float yaw = -180 + LocationUtils.RANDOM.nextFloat() * 360;
+                return new Location(world, x + 0.5, y, z + 0.5, yaw, 0);
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isSafeGround(@NotNull Material type) {
+        return !AIR_MATERIALS.contains(type)
+                && !LIQUID_MATERIALS.contains(type)
+                && !UNSAFE_BLOCK_MATERIALS.contains(type);
+    }
+
+    /**
+     * Returns offsets of the cube with the given radius sorted by distance from its center.
+     * The center itself is excluded, to not place anything inside the point,
+     * but blocks above and below it are kept, like in the whole cube scan.
+     */
+    @NotNull
+    private static int[] computeNearestOffsets(int radius) {
+        List<int[]> offsets = new ArrayList<>();
+        for (int x = -radius; x <= radius; x++) {
+            for (int y = -radius; y <= radius; y++) {
+                for (int z = -radius; z <= radius; z++) {
+                    if (x != 0 || y != 0 || z != 0) {
+                        offsets.add(new int[]{x, y, z});
                     }
                 }
             }
         }
 
-        if (availableLocations.size() == 0) {
-            return getBlockCenter(playerBlock.getLocation().clone());
-        }
+        offsets.sort(Comparator.<int[]>comparingInt(o -> o[0] * o[0] + o[1] * o[1] + o[2] * o[2])
+                .thenComparingInt(o -> Math.abs(o[1])));
 
-        return availableLocations.get(LocationUtils.RANDOM.nextInt(availableLocations.size()));
+        int[] result = new int[offsets.size() * 3];
+        for (int i = 0; i < offsets.size(); i++) {
+            System.arraycopy(offsets.get(i), 0, result, i * 3, 3);
+        }
+        return result;
     }
 
     public static Location getBlockCenter(Location loc) {
@@ -122,17 +179,7 @@ public class LocationUtils {
     @NotNull
     public static List<Player> getNearbyPlayers(Location location, double distance) {
         List<Player> nearbyPlayers = new ArrayList<>();
-        for (Player entity : location.getWorld().getPlayers()) {
-            try {
-                if (entity.getLocation().distance(location) <= distance) {
-                    nearbyPlayers.add(entity);
-                }
-            } catch (IllegalArgumentException ignore) {
-                // https://gitlab.com/endlesscodegroup/rpginventory/rpginventory/issues/162
-                // Is it magic?
-            }
-        }
-
+        NearbyPlayers.forEach(location, distance, nearbyPlayers::add);
         return nearbyPlayers;
     }
 
@@ -147,6 +194,18 @@ public class LocationUtils {
     }
 
     public static boolean isSafeLocation(@Nullable Location location) {
-        return location != null && !LocationUtils.UNSAFE_BLOCK_MATERIALS.contains(location.getBlock().getType().name());
+        return location != null && !LocationUtils.UNSAFE_BLOCK_MATERIALS.contains(location.getBlock().getType());
+    }
+
+    @NotNull
+    private static Set<Material> materials(@NotNull String... names) {
+        Set<Material> materials = EnumSet.noneOf(Material.class);
+        for (String name : names) {
+            Material material = Material.getMaterial(name);
+            if (material != null) {
+                materials.add(material);
+            }
+        }
+        return materials;
     }
 }
@@ -0,0 +1,160 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2015-2017 Osip Fatkullin
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.utils;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import ru.endlesscode.rpginventory.RPGInventory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Finds players near the location using grid of player positions.
+ * <p>
+ * Grid of a world is built on the first query in a tick and shared by all queries until the end of the tick,
+ * so many effects played in the same tick don't iterate over all players of the world each time.
+ * Should be used only from the main thread.
+ */
+final class NearbyPlayers {
+
+    private static final int CELL_SIZE = 32;
+
+    private static final Map<World, Map<Long, List<Entry>>> grids = new HashMap<>();
+    private static final Location buffer = new Location(null, 0, 0, 0);
+    private static boolean resetScheduled = false;
+
+    private NearbyPlayers() {
+    }
+
+    static void forEach(@NotNull Location location, double distance, @NotNull Consumer<Player> action) {
+        World world = location.getWorld();
+        if (world == null) {
+            return;
+        }
+
+        double x = location.getX();
+        double y = location.getY();
+        double z = location.getZ();
+        double distanceSquared = distance * distance;
+
+        if (!RPGInventory.getInstance().isEnabled()) {
+            // Reset can't be scheduled, so grid can't be used
+            for (Player player : world.getPlayers()) {
+                player.getLocation(buffer);
+                if (isNear(buffer.getX(), buffer.getY(), buffer.getZ(), x, y, z, distance, distanceSquared)) {
+                    action.accept(player);
+                }
+            }
+            return;
+        }
+
+        Map<Long, List<Entry>> grid = getGrid(world);
+        int minCellX = cell(x - distance);
+        int maxCellX = cell(x + distance);
+        int minCellZ = cell(z - distance);
+        int maxCellZ = cell(z + distance);
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+                List<Entry> entries = grid.get(key(cellX, cellZ));
+                if (entries == null) {
+                    continue;
+                }
+
+                for (Entry entry : entries) {
+                    if (isNear(entry.x, entry.y, entry.z, x, y, z, distance, distanceSquared)) {
+                        action.accept(entry.player);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isNear(double x1, double y1, double z1, double x2, double y2, double z2,
+                                  double distance, double distanceSquared) {
+        double dx = x1 - x2;
+        if (dx > distance || dx < -distance) {
+            return false;
+        }
+
+        double dz = z1 - z2;
+        if (dz > distance || dz < -distance) {
+            return false;
+        }
+
+        double dy = y1 - y2;
+        return dx * dx + dy * dy + dz * dz <= distanceSquared;
+    }
+
+    @NotNull
+    private static Map<Long, List<Entry>> getGrid(@NotNull World world) {
+        Map<Long, List<Entry>> grid = grids.get(world);
+        if (grid != null) {
+            return grid;
+        }
+
+        grid = new HashMap<>();
+        for (Player player : world.getPlayers()) {
+            player.getLocation(buffer);
+            Entry entry = new Entry(player, buffer.getX(), buffer.getY(), buffer.getZ());
+            grid.computeIfAbsent(key(cell(entry.x), cell(entry.z)), k -> new ArrayList<>()).add(entry);
+        }
+        grids.put(world, grid);
+
+        if (!resetScheduled) {
+            resetScheduled = true;
+            Bukkit.getScheduler().runTask(RPGInventory.getInstance(), NearbyPlayers::reset);
+        }
+
+        return grid;
+    }
+
+    private static void reset() {
+        grids.clear();
+        resetScheduled = false;
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    private static long key(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
+    private static class Entry {
+        private final Player player;
+        private final double x;
+        private final double y;
+        private final double z;
+
+        private Entry(Player player, double x, double y, double z) {
+            this.player = player;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2018 EndlessCode Group and contributors
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.misc.serialization;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class BinaryFormatTest {
+
+    @Test
+    public void shouldReadWrittenVarInts() throws IOException {
+        int[] values = {0, 1, 127, 128, 300, 65_535, Integer.MAX_VALUE, -1};
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int value : values) {
+            BinaryFormat.writeVarInt(out, value);
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (int value : values) {
+            Assert.assertEquals(value, BinaryFormat.readVarInt(in));
+        }
+    }
+
+    @Test
+    public void shouldWriteSmallVarIntInOneByte() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryFormat.writeVarInt(new DataOutputStream(bytes), 127);
+
+        Assert.assertEquals(1, bytes.size());
+    }
+
+    @Test
+    public void shouldReadWrittenHeader() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryFormat.writeHeader(new DataOutputStream(bytes));
+
+        BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Assert.assertEquals(BinaryFormat.VERSION, BinaryFormat.readHeader(in));
+        Assert.assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void shouldResetStreamWithoutHeader() throws IOException {
+        byte[] yaml = "data:\n  ==: Backpack".getBytes(StandardCharsets.UTF_8);
+
+        BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(yaml));
+        Assert.assertEquals(0, BinaryFormat.readHeader(in));
+        Assert.assertEquals('d', in.read());
+    }
+
+    @Test
+    public void shouldDetectCompressedData() {
+        byte[] gzip = {0x1f, (byte) 0x8b, 0x08};
+        byte[] base64 = "H4sIAAAAAAAAAA==".getBytes(StandardCharsets.US_ASCII);
+
+        Assert.assertTrue(BinaryFormat.isCompressed(gzip));
+        Assert.assertFalse(BinaryFormat.isCompressed(base64));
+        Assert.assertFalse(BinaryFormat.isCompressed(new byte[0]));
+    }
+}
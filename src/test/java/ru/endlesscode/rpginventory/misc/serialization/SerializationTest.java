@@ -0,0 +1,236 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2018 EndlessCode Group and contributors
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.misc.serialization;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.UnsafeValues;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.inventory.ItemFactory;
+import org.bukkit.inventory.ItemStack;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ru.endlesscode.rpginventory.inventory.backpack.Backpack;
+import ru.endlesscode.rpginventory.inventory.backpack.BackpackManager;
+import ru.endlesscode.rpginventory.inventory.backpack.BackpackType;
+import ru.endlesscode.rpginventory.utils.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+public class SerializationTest {
+
+    private static final int DATA_VERSION = 2586;
+    private static final String BACKPACK_TYPE = "test";
+    private static final int BACKPACK_SIZE = 9;
+    private static final long LAST_USE = 1_600_000_000_000L;
+
+    @BeforeClass
+    @SuppressWarnings("unchecked")
+    public static void init() throws ReflectiveOperationException {
+        Log.init(Logger.getLogger("SerializationTest"));
+        if (Bukkit.getServer() == null) {
+            UnsafeValues unsafe = Mockito.mock(UnsafeValues.class);
+            Mockito.when(unsafe.getDataVersion()).thenReturn(DATA_VERSION);
+            Mockito.when(unsafe.getMaterial(Mockito.anyString(), Mockito.anyInt()))
+                    .thenAnswer(invocation -> Material.getMaterial(invocation.getArgument(0)));
+            // Items without meta only, so they can be created without server
+            ItemFactory itemFactory = Mockito.mock(ItemFactory.class);
+            Mockito.when(itemFactory.equals(Mockito.any(), Mockito.any())).thenReturn(true);
+
+            Server server = Mockito.mock(Server.class);
+            Mockito.when(server.getLogger()).thenReturn(Logger.getLogger("SerializationTest"));
+            Mockito.when(server.getUnsafe()).thenReturn(unsafe);
+            Mockito.when(server.getItemFactory()).thenReturn(itemFactory);
+            Bukkit.setServer(server);
+        }
+        Serialization.registerTypes();
+
+        BackpackType type = Mockito.mock(BackpackType.class);
+        Mockito.when(type.getId()).thenReturn(BACKPACK_TYPE);
+        Mockito.when(type.getSize()).thenReturn(BACKPACK_SIZE);
+        Field types = BackpackManager.class.getDeclaredField("BACKPACK_TYPES");
+        types.setAccessible(true);
+        ((Map<String, BackpackType>) types.get(null)).put(BACKPACK_TYPE, type);
+    }
+
+    @Test
+    public void shouldLoadSavedInventory() throws IOException, InvalidConfigurationException {
+        InventorySnapshot snapshot = createInventory();
+
+        InventorySnapshot loaded = Serialization.loadInventorySnapshot(Serialization.save(snapshot));
+
+        assertInventoryEquals(snapshot, loaded);
+    }
+
+    @Test
+    public void shouldLoadSavedBackpack() throws IOException, InvalidConfigurationException {
+        Backpack backpack = createBackpack();
+        byte[] data = Serialization.save(backpack);
+
+        Backpack loaded = Serialization.loadBackpack(backpack.getId().toString(), data);
+
+        assertBackpackEquals(backpack, loaded);
+        Assert.assertEquals(Long.valueOf(LAST_USE), Serialization.readBackpackLastUse(data));
+    }
+
+    @Test
+    public void shouldLoadInventorySavedInYaml() throws IOException, InvalidConfigurationException {
+        InventorySnapshot snapshot = createInventory();
+
+        InventorySnapshot fromFile = Serialization.loadInventorySnapshot(saveYaml(snapshot));
+        InventorySnapshot fromDatabase = Serialization.loadInventorySnapshot(
+                Base64.getEncoder().encode(saveYaml(snapshot)));
+
+        assertInventoryEquals(snapshot, fromFile);
+        assertInventoryEquals(snapshot, fromDatabase);
+    }
+
+    @Test
+    public void shouldLoadBackpackSavedInYaml() throws IOException, InvalidConfigurationException {
+        Backpack backpack = createBackpack();
+        String id = backpack.getId().toString();
+
+        Backpack fromFile = Serialization.loadBackpack(id, saveYaml(backpack));
+        Backpack fromDatabase = Serialization.loadBackpack(id, Base64.getEncoder().encode(saveYaml(backpack)));
+
+        assertBackpackEquals(backpack, fromFile);
+        assertBackpackEquals(backpack, fromDatabase);
+        Assert.assertNull(Serialization.readBackpackLastUse(saveYaml(backpack)));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailOnUnknownItem() throws IOException, InvalidConfigurationException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            BinaryFormat.writeHeader(out);
+            BinaryFormat.writeVarInt(out, DATA_VERSION);
+            out.writeByte(2); // Backpack
+            out.writeUTF(UUID.randomUUID().toString());
+            out.writeUTF(BACKPACK_TYPE);
+            out.writeLong(0);
+            BinaryFormat.writeVarInt(out, 1);
+            out.writeBoolean(true);
+            out.writeUTF("minecraft:unknown_item");
+            BinaryFormat.writeVarInt(out, 1);
+            out.writeBoolean(false);
+        }
+
+        Serialization.loadBackpack("unknown", bytes.toByteArray());
+    }
+
+    private static InventorySnapshot createInventory() {
+        Map<String, Object> slot = new LinkedHashMap<>();
+        slot.put("type", "GENERIC");
+        slot.put("bought", true);
+        slot.put("items", Arrays.asList(new ItemStack(Material.STONE, 3), new ItemStack(Material.DIAMOND_SWORD)));
+
+        Map<String, Object> inventory = new LinkedHashMap<>();
+        inventory.put("bought-slots", 2);
+        inventory.put("slots", Collections.singletonMap("slot", SlotSnapshot.deserialize(slot)));
+        return InventorySnapshot.deserialize(inventory);
+    }
+
+    private static Backpack createBackpack() {
+        ItemStack[] contents = new ItemStack[BACKPACK_SIZE];
+        contents[0] = new ItemStack(Material.APPLE, 16);
+        contents[4] = new ItemStack(Material.IRON_INGOT, 64);
+
+        Map<String, Object> backpack = new LinkedHashMap<>();
+        backpack.put("id", UUID.randomUUID().toString());
+        backpack.put("type", BACKPACK_TYPE);
+        backpack.put("contents", Arrays.asList(contents));
+        backpack.put("last-use", LAST_USE);
+        return Backpack.deserialize(backpack);
+    }
+
+    /**
+     * Saves data like older versions did: YAML compressed with GZIP.
+     */
+    private static byte[] saveYaml(Object data) throws IOException {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("data", data);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStreamWriter writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)) {
+            writer.write(config.saveToString());
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertInventoryEquals(InventorySnapshot expected, InventorySnapshot actual) {
+        Map<String, Object> expectedMap = expected.serialize();
+        Map<String, Object> actualMap = actual.serialize();
+        Assert.assertEquals(expectedMap.get("bought-slots"), actualMap.get("bought-slots"));
+
+        Map<String, SlotSnapshot> expectedSlots = (Map<String, SlotSnapshot>) expectedMap.get("slots");
+        Map<String, SlotSnapshot> actualSlots = (Map<String, SlotSnapshot>) actualMap.get("slots");
+        Assert.assertEquals(expectedSlots.keySet(), actualSlots.keySet());
+        for (String name : expectedSlots.keySet()) {
+            Map<String, Object> expectedSlot = expectedSlots.get(name).serialize();
+            Map<String, Object> actualSlot = actualSlots.get(name).serialize();
+            Assert.assertEquals(expectedSlot.get("type"), actualSlot.get("type"));
+            Assert.assertEquals(expectedSlot.get("bought"), actualSlot.get("bought"));
+            assertItemsEquals((List<ItemStack>) expectedSlot.get("items"), (List<ItemStack>) actualSlot.get("items"));
+        }
+    }
+
+    private static void assertBackpackEquals(Backpack expected, Backpack actual) {
+        Map<String, Object> expectedMap = expected.serialize();
+        Map<String, Object> actualMap = actual.serialize();
+        Assert.assertEquals(expectedMap.get("id"), actualMap.get("id"));
+        Assert.assertEquals(expectedMap.get("type"), actualMap.get("type"));
+        Assert.assertEquals(expectedMap.get("last-use"), actualMap.get("last-use"));
+        assertItemsEquals(Arrays.asList((ItemStack[]) expectedMap.get("contents")),
+                Arrays.asList((ItemStack[]) actualMap.get("contents")));
+    }
+
+    private static void assertItemsEquals(List<ItemStack> expected, List<ItemStack> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            ItemStack expectedItem = expected.get(i);
+            ItemStack actualItem = actual.get(i);
+            if (expectedItem == null) {
+                Assert.assertNull(actualItem);
+            } else {
+                Assert.assertNotNull(actualItem);
+                Assert.assertEquals(expectedItem.getType(), actualItem.getType());
+                Assert.assertEquals(expectedItem.getAmount(), actualItem.getAmount());
+            }
+        }
+    }
+}
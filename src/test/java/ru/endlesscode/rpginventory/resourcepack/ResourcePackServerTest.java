@@ -0,0 +1,57 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2018 EndlessCode Group and contributors
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.resourcepack;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResourcePackServerTest {
+
+    @Test
+    public void shouldParseBoundedRange() {
+        Assert.assertArrayEquals(new long[]{10, 19}, ResourcePackServer.parseRange("bytes=10-19", 100));
+    }
+
+    @Test
+    public void shouldParseOpenAndSuffixRanges() {
+        Assert.assertArrayEquals(new long[]{90, 99}, ResourcePackServer.parseRange("bytes=90-", 100));
+        Assert.assertArrayEquals(new long[]{80, 99}, ResourcePackServer.parseRange("bytes=-20", 100));
+        Assert.assertArrayEquals(new long[]{0, 99}, ResourcePackServer.parseRange("bytes=-200", 100));
+    }
+
+    @Test
+    public void shouldTrimRangeEndToFileSize() {
+        Assert.assertArrayEquals(new long[]{50, 99}, ResourcePackServer.parseRange("bytes=50-500", 100));
+    }
+
+    @Test
+    public void shouldRejectUnsatisfiableRanges() {
+        Assert.assertSame(ResourcePackServer.UNSATISFIABLE, ResourcePackServer.parseRange("bytes=100-", 100));
+        Assert.assertSame(ResourcePackServer.UNSATISFIABLE, ResourcePackServer.parseRange("bytes=-0", 100));
+        Assert.assertSame(ResourcePackServer.UNSATISFIABLE, ResourcePackServer.parseRange("bytes=0-10", 0));
+    }
+
+    @Test
+    public void shouldIgnoreUnsupportedRanges() {
+        Assert.assertNull(ResourcePackServer.parseRange("bytes=20-10", 100));
+        Assert.assertNull(ResourcePackServer.parseRange("bytes=0-1,5-6", 100));
+        Assert.assertNull(ResourcePackServer.parseRange("items=0-1", 100));
+        Assert.assertNull(ResourcePackServer.parseRange("bytes=a-b", 100));
+    }
+}
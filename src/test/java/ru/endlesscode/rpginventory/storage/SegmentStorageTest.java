@@ -0,0 +1,179 @@
+/*
+ * This file is part of RPGInventory.
+ * Copyright (C) 2018 EndlessCode Group and contributors
+ *
+ * RPGInventory is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RPGInventory is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RPGInventory.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.endlesscode.rpginventory.storage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.endlesscode.rpginventory.utils.Log;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+public class SegmentStorageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dataFolder;
+    private SegmentStorage storage;
+
+    @BeforeClass
+    public static void initLog() {
+        Log.init(Logger.getLogger("SegmentStorageTest"));
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dataFolder = folder.getRoot().toPath();
+        storage = new SegmentStorage(dataFolder);
+    }
+
+    @After
+    public void tearDown() {
+        storage.close();
+    }
+
+    @Test
+    public void shouldLoadLatestVersionOfRecord() throws IOException {
+        UUID id = UUID.randomUUID();
+        storage.save(RecordType.INVENTORY, id, new byte[]{1, 2, 3});
+        storage.save(RecordType.INVENTORY, id, new byte[]{4, 5});
+
+        Assert.assertArrayEquals(new byte[]{4, 5}, storage.load(RecordType.INVENTORY, id));
+        Assert.assertNull(storage.load(RecordType.BACKPACK, id));
+    }
+
+    @Test
+    public void shouldRebuildIndexOnReopen() throws IOException {
+        UUID saved = UUID.randomUUID();
+        UUID deleted = UUID.randomUUID();
+        storage.save(RecordType.INVENTORY, saved, new byte[]{1});
+        storage.save(RecordType.BACKPACK, deleted, new byte[]{2});
+        storage.delete(RecordType.BACKPACK, deleted);
+
+        reopen();
+
+        Assert.assertArrayEquals(new byte[]{1}, storage.load(RecordType.INVENTORY, saved));
+        Assert.assertFalse(storage.exists(RecordType.BACKPACK, deleted));
+    }
+
+    @Test
+    public void shouldDropTornRecordAtTheEnd() throws IOException {
+        UUID id = UUID.randomUUID();
+        storage.save(RecordType.INVENTORY, id, new byte[]{1, 2, 3});
+        storage.close();
+
+        Files.write(getSegmentFile(0), new byte[]{0x52, 0x50, 0x49}, StandardOpenOption.APPEND);
+        storage = new SegmentStorage(dataFolder);
+
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, storage.load(RecordType.INVENTORY, id));
+        UUID newId = UUID.randomUUID();
+        storage.save(RecordType.INVENTORY, newId, new byte[]{4});
+        reopen();
+        Assert.assertArrayEquals(new byte[]{4}, storage.load(RecordType.INVENTORY, newId));
+    }
+
+    @Test
+    public void shouldPassAllRecordsOfType() throws IOException {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        storage.save(RecordType.BACKPACK, first, new byte[]{1});
+        storage.save(RecordType.BACKPACK, second, new byte[]{2});
+        storage.save(RecordType.INVENTORY, UUID.randomUUID(), new byte[]{3});
+
+        Map<UUID, byte[]> records = new HashMap<>();
+        storage.forEach(RecordType.BACKPACK, records::put);
+
+        Assert.assertEquals(2, records.size());
+        Assert.assertArrayEquals(new byte[]{2}, records.get(second));
+    }
+
+    @Test
+    public void shouldKeepLiveRecordsOnCompaction() throws IOException {
+        UUID superseded = UUID.randomUUID();
+        UUID live = UUID.randomUUID();
+        storage.save(RecordType.INVENTORY, superseded, new byte[100]);
+        storage.save(RecordType.INVENTORY, superseded, new byte[100]);
+        storage.save(RecordType.INVENTORY, superseded, new byte[]{1});
+        storage.save(RecordType.BACKPACK, live, new byte[]{2});
+        startNewSegment(1);
+
+        storage.compact();
+
+        Assert.assertFalse(Files.exists(getSegmentFile(0)));
+        Assert.assertArrayEquals(new byte[]{1}, storage.load(RecordType.INVENTORY, superseded));
+        Assert.assertArrayEquals(new byte[]{2}, storage.load(RecordType.BACKPACK, live));
+        reopen();
+        Assert.assertArrayEquals(new byte[]{1}, storage.load(RecordType.INVENTORY, superseded));
+        Assert.assertArrayEquals(new byte[]{2}, storage.load(RecordType.BACKPACK, live));
+    }
+
+    @Test
+    public void shouldKeepTombstoneWhileOlderSegmentHasRecord() throws IOException {
+        UUID deleted = UUID.randomUUID();
+        UUID live = UUID.randomUUID();
+        storage.save(RecordType.BACKPACK, live, new byte[100]);
+        storage.save(RecordType.BACKPACK, deleted, new byte[]{1});
+        startNewSegment(1);
+
+        UUID superseded = UUID.randomUUID();
+        storage.delete(RecordType.BACKPACK, deleted);
+        storage.save(RecordType.INVENTORY, superseded, new byte[100]);
+        storage.save(RecordType.INVENTORY, superseded, new byte[]{2});
+        startNewSegment(2);
+
+        storage.compact();
+
+        Assert.assertTrue(Files.exists(getSegmentFile(0)));
+        Assert.assertFalse(Files.exists(getSegmentFile(1)));
+        reopen();
+        Assert.assertFalse(storage.exists(RecordType.BACKPACK, deleted));
+        Assert.assertArrayEquals(new byte[100], storage.load(RecordType.BACKPACK, live));
+        Assert.assertArrayEquals(new byte[]{2}, storage.load(RecordType.INVENTORY, superseded));
+    }
+
+    /**
+     * Seals all current segments, so they can be compacted.
+     */
+    private void startNewSegment(int id) throws IOException {
+        storage.close();
+        Files.createFile(getSegmentFile(id));
+        storage = new SegmentStorage(dataFolder);
+    }
+
+    private Path getSegmentFile(int id) {
+        return dataFolder.resolve(SegmentStorage.FOLDER).resolve(String.format("%08d.seg", id));
+    }
+
+    private void reopen() throws IOException {
+        storage.close();
+        storage = new SegmentStorage(dataFolder);
+    }
+}